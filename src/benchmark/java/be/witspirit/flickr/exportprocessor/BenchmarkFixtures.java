@@ -0,0 +1,108 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates in-memory fixtures resembling a Flickr export, so the benchmarks do not depend on an actual export.
+ * The same seed always results in the same fixtures.
+ */
+final class BenchmarkFixtures {
+    private static final long FIRST_PHOTO_ID = 30_000_000_000L;
+    private static final String[] TAG_WORDS = {"zomer", "winter", "kids", "family", "beach", "st petersburg", "a/b", "square format", "instagram app", "hiking", "birthday", "party"};
+
+    private BenchmarkFixtures() {
+    }
+
+    static String photoId(int index) {
+        return Long.toString(FIRST_PHOTO_ID + index * 37L);
+    }
+
+    /**
+     * @return The photo metadata JSON documents, as they would be read from the metadata folder
+     */
+    static byte[][] photoJson(int photoCount, long seed) {
+        Random random = new Random(seed);
+        byte[][] documents = new byte[photoCount][];
+        for (int i = 0; i < photoCount; i++) {
+            documents[i] = photoJson(i, random).getBytes(StandardCharsets.UTF_8);
+        }
+        return documents;
+    }
+
+    static String photoJson(int index, Random random) {
+        String id = photoId(index);
+        // Some photos lack a proper name, as in the real exports
+        String name = random.nextInt(20) == 0 ? "" : String.format("%08d_photoshoot---%03d", 20100101 + random.nextInt(90000), index % 1000);
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"id\": \"").append(id).append("\",")
+                .append("\"name\": \"").append(name).append("\",")
+                .append("\"description\": \"Generated photo ").append(index).append("\",")
+                .append("\"count_views\": \"").append(random.nextInt(500)).append("\",")
+                .append("\"date_taken\": \"").append(String.format("%04d-%02d-%02d %02d:%02d:%02d", 2005 + random.nextInt(15), 1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60))).append("\",")
+                .append("\"original\": \"https://farm2.staticflickr.com/1842/").append(id).append('_').append(String.format("%010x", random.nextLong() & 0xFFFFFFFFFFL)).append("_o.jpg\",")
+                .append("\"geo\": [],")
+                .append("\"tags\": [");
+        int tagCount = random.nextInt(6);
+        for (int t = 0; t < tagCount; t++) {
+            if (t > 0) {
+                json.append(',');
+            }
+            // A long tail of distinct tags on top of the common ones
+            String tag = random.nextInt(4) == 0 ? "tag " + random.nextInt(2000) : TAG_WORDS[random.nextInt(TAG_WORDS.length)];
+            json.append("{\"tag\": \"").append(tag.replace("/", "\\/")).append("\", \"user\": \"12345678@N00\"}");
+        }
+        json.append("],")
+                .append("\"exif\": {\"Make\": \"Canon\", \"Model\": \"Canon EOS 5D\", \"ExposureTime\": {\"full\": \"ExifIFD:ExposureTime\", \"label\": \"Exposure\", \"value\": \"0.004 sec (1/250)\", \"raw_value\": \"1/250\"}, \"ISO\": \"").append(100 << random.nextInt(5)).append("\"},")
+                .append("\"privacy\": \"public\"}");
+        return json.toString();
+    }
+
+    static Map<String, PhotoMeta> photoMetadata(int photoCount, long seed, PhotoMetaReader reader) {
+        Map<String, PhotoMeta> photoMetaById = new LinkedHashMap<>(photoCount * 2);
+        for (byte[] json : photoJson(photoCount, seed)) {
+            try {
+                PhotoMeta photoMeta = reader.read(json);
+                photoMetaById.put(photoMeta.getId(), photoMeta);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return photoMetaById;
+    }
+
+    /**
+     * @return Albums over the photos. Most photos appear in one album, some in several and some in none.
+     */
+    static List<Album> albums(int photoCount, int albumCount, long seed) {
+        Random random = new Random(seed);
+        List<List<String>> photoIdsByAlbum = new ArrayList<>(albumCount);
+        for (int a = 0; a < albumCount; a++) {
+            photoIdsByAlbum.add(new ArrayList<>());
+        }
+        for (int i = 0; i < photoCount; i++) {
+            int appearances = random.nextInt(10) == 0 ? 0 : (random.nextInt(5) == 0 ? 2 : 1);
+            int firstAlbum = random.nextInt(albumCount);
+            for (int a = 0; a < Math.min(appearances, albumCount); a++) {
+                // A photo appears at most once in an album
+                photoIdsByAlbum.get((firstAlbum + a) % albumCount).add(photoId(i));
+            }
+        }
+        List<Album> albums = new ArrayList<>(albumCount);
+        for (int a = 0; a < albumCount; a++) {
+            List<String> photoIds = photoIdsByAlbum.get(a);
+            albums.add(new Album(Long.toString(72157600000000000L + a), "Album " + a + ": Trip to St. Petersburg", "", Integer.toString(photoIds.size()), "1300000000", "1500000000", photoIds));
+        }
+        return albums;
+    }
+}
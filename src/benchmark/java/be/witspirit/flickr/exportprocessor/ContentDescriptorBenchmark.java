@@ -0,0 +1,76 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the hand written Content filename parser with the regex based version it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentDescriptorBenchmark {
+    private static final Pattern CONTENT_PATTERN_1 = Pattern.compile("^(\\d{11})_(.{10})(_o)?\\.(.+)$");
+    private static final Pattern CONTENT_PATTERN_2 = Pattern.compile("^(.+)_(\\d+)(_o)?\\.(.+)$");
+
+    private Path[] paths;
+
+    @Setup
+    public void generateFileNames() {
+        Random random = new Random(42);
+        paths = new Path[1024];
+        for (int i = 0; i < paths.length; i++) {
+            long id = 10_000_000_000L + (random.nextLong() & 0xFFFFFFFFFL);
+            if (i % 2 == 0) {
+                paths[i] = Path.of(id + "_" + String.format("%010x", random.nextLong() & 0xFFFFFFFFFFL) + "_o.jpg");
+            } else {
+                paths[i] = Path.of(String.format("%08d_photoshoot---%03d", 20180000 + random.nextInt(9999), i % 1000) + "_" + id + "_o.jpg");
+            }
+        }
+    }
+
+    @Benchmark
+    public void handWritten(Blackhole blackhole) {
+        for (Path path : paths) {
+            blackhole.consume(ContentDescriptor.parse(path, -1));
+        }
+    }
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            Matcher pattern1Matcher = CONTENT_PATTERN_1.matcher(fileName);
+            if (pattern1Matcher.matches()) {
+                blackhole.consume(pattern1Matcher.group(1));
+                blackhole.consume(pattern1Matcher.group(2));
+                blackhole.consume(pattern1Matcher.group(4));
+            } else {
+                Matcher pattern2Matcher = CONTENT_PATTERN_2.matcher(fileName);
+                if (pattern2Matcher.matches()) {
+                    blackhole.consume(pattern2Matcher.group(2));
+                    blackhole.consume(pattern2Matcher.group(1));
+                    blackhole.consume(pattern2Matcher.group(4));
+                }
+            }
+        }
+    }
+}
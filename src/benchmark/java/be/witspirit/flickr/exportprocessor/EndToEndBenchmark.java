@@ -0,0 +1,99 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs the complete flow, scan -> parse -> structure -> transfer, on a freshly generated export and reports the wall
+ * time, peak heap and throughput of every phase. As the transfer moves the content out of the export, every run
+ * generates a new export (which is not part of the measurement).
+ * With "pipelined" as fourth argument, the phases run as a single {@link TransferPipeline} instead.
+ */
+public class EndToEndBenchmark {
+    private static final int WORKERS = 4;
+
+    public static void main(String[] args) throws IOException {
+        int photoCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Path workPath = Path.of(args.length > 1 ? args[1] : "target/end-to-end");
+        Transfer duplicateTransfer = args.length > 2 ? Transfer.valueOf(args[2]) : Transfer.LINK;
+        boolean pipelined = args.length > 3 && args[3].equals("pipelined");
+
+        // The per file debug logging of the transfers would dominate the measurement
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+
+        Files.createDirectories(workPath);
+        Path exportPath = Files.createTempDirectory(workPath, "export-");
+        System.out.printf("Generating an export of %d photos in %s...\n", photoCount, exportPath);
+        new ExportGenerator(photoCount, 42).generate(exportPath);
+
+        Path metadataPath = exportPath.resolve(ExportGenerator.METADATA_FOLDER);
+        Path contentPath = exportPath.resolve(ExportGenerator.CONTENT_FOLDER);
+        Path destinationPath = exportPath.resolve("Processed");
+
+        ObjectMapper objectMapper = new AppConfig().objectMapper();
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(objectMapper, directoryIndex, Shard.ALL, metadataPath.toString(), WORKERS, "");
+        ContentService contentService = new ContentService(directoryIndex, Shard.ALL, contentPath.toString(), 1);
+        StructuringService structuringService = new StructuringService(destinationPath.toString());
+        DuplicateDetectionService duplicateDetectionService = new DuplicateDetectionService(WORKERS);
+        TransferEngine transferEngine = new TransferEngine(structuringService, directoryIndex, duplicateDetectionService, Shard.ALL,
+                WORKERS, duplicateTransfer, false, "", 256, "");
+
+        System.out.printf("%-10s %10s %12s %10s %14s\n", "Phase", "Items", "Wall (ms)", "Items/s", "Peak heap (MB)");
+        if (pipelined) {
+            TransferPipeline pipeline = new TransferPipeline(metadataService, contentService, structuringService, transferEngine, Shard.ALL, 16, 500);
+            System.out.println(measure("pipeline", pipeline::run, s -> (int) s.getFilesTransferred()));
+            return;
+        }
+        measure("scan", () -> directoryIndex.list(metadataPath).size() + directoryIndex.list(contentPath).size());
+        PhotoCatalog catalog = measure("parse", metadataService::loadPhotoCatalog, PhotoCatalog::size);
+        List<Album> albums = metadataService.loadAlbums();
+        List<AlbumDescriptor> albumDescriptors = measure("structure", () -> structuringService.deriveAlbumStructure(albums, catalog),
+                descriptors -> descriptors.stream().mapToInt(album -> album.getPhotos().size()).sum());
+        Map<String, ContentDescriptor> contentById = contentService.loadDescriptors();
+        TransferStats stats = measure("transfer", () -> transferEngine.transfer(albumDescriptors, contentById), s -> (int) s.getFilesTransferred());
+        System.out.println(stats);
+    }
+
+    private static int measure(String phase, Supplier<Integer> work) {
+        return measure(phase, work, Integer::intValue);
+    }
+
+    private static <T> T measure(String phase, Supplier<T> work, ToIntFunction<T> itemCount) {
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long start = System.nanoTime();
+        T result = work.get();
+        long nanos = System.nanoTime() - start;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+        int items = itemCount.applyAsInt(result);
+        System.out.printf("%-10s %10d %12d %10.0f %14d\n", phase, items, nanos / 1_000_000, items * 1e9 / Math.max(1, nanos), peakHeap / (1024 * 1024));
+        return result;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        return heapPools;
+    }
+}
@@ -0,0 +1,89 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic Flickr export to a local directory, as a stand-in for the real exports we cannot share.
+ * Like a real export, it has a metadata folder with the photo_&lt;id&gt;.json files and albums.json, and a content folder
+ * with files in both filename patterns. Some photos lack their metadata, some lack their content, and some content is
+ * byte identical to other content.
+ */
+public class ExportGenerator {
+    public static final String METADATA_FOLDER = "metadata";
+    public static final String CONTENT_FOLDER = "ImagesAndVideos";
+
+    private final int photoCount;
+    private final long seed;
+
+    public ExportGenerator(int photoCount, long seed) {
+        this.photoCount = photoCount;
+        this.seed = seed;
+    }
+
+    public void generate(Path exportPath) {
+        Path metadataPath = exportPath.resolve(METADATA_FOLDER);
+        Path contentPath = exportPath.resolve(CONTENT_FOLDER);
+        try {
+            Files.createDirectories(metadataPath);
+            Files.createDirectories(contentPath);
+
+            Random random = new Random(seed);
+            byte[] previousContent = new byte[0];
+            for (int i = 0; i < photoCount; i++) {
+                String photoId = BenchmarkFixtures.photoId(i);
+                String json = BenchmarkFixtures.photoJson(i, random);
+                int fate = random.nextInt(100);
+                if (fate != 0) { // 1% lacks its metadata
+                    Files.writeString(metadataPath.resolve("photo_" + photoId + ".json"), json);
+                }
+                if (fate != 1) { // 1% lacks its content
+                    byte[] content = random.nextInt(50) == 0 ? previousContent : content(random);
+                    Files.write(contentPath.resolve(contentFileName(i, photoId, random)), content);
+                    previousContent = content;
+                }
+            }
+
+            List<Album> albums = BenchmarkFixtures.albums(photoCount, Math.max(1, photoCount / 50), seed);
+            new AppConfig().objectMapper().writeValue(metadataPath.resolve("albums.json").toFile(), Map.of("albums", albums));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to generate export in "+exportPath, e);
+        }
+    }
+
+    private static String contentFileName(int index, String photoId, Random random) {
+        String original = random.nextInt(10) == 0 ? "" : "_o";
+        String extension = random.nextInt(20) == 0 ? "mp4" : "jpg";
+        if (index % 2 == 0) {
+            return photoId + "_" + String.format("%010x", random.nextLong() & 0xFFFFFFFFFFL) + original + "." + extension;
+        }
+        return String.format("img_%05d", index % 100_000) + "_" + photoId + original + "." + extension;
+    }
+
+    private static byte[] content(Random random) {
+        // Small, so generating millions of photos stays feasible, while sizes still collide regularly
+        byte[] content = new byte[512 + random.nextInt(3584)];
+        random.nextBytes(content);
+        return content;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ExportGenerator <export directory> <photo count> [seed]");
+            System.exit(1);
+        }
+        Path exportPath = Path.of(args[0]);
+        int photoCount = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        long start = System.nanoTime();
+        new ExportGenerator(photoCount, seed).generate(exportPath);
+        System.out.printf("Generated an export of %d photos in %s in %d ms\n", photoCount, exportPath, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,69 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass FileNameSanitizer with the chain of replaceAll calls it replaced.
+ * The inputs mimic Album titles: a limited set of distinct values, of which some need sanitizing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileNameSanitizerBenchmark {
+    private static final String[] TITLES = {"Zomer 2019", "Trip to St. Petersburg", "Kindjes photoshoot", "Day 1/3: arrival", "Family", "<untitled>"};
+
+    private String[] inputs;
+
+    @Setup
+    public void generateInputs() {
+        Random random = new Random(42);
+        inputs = new String[1024];
+        for (int i = 0; i < inputs.length; i++) {
+            // New instances, so we don't measure identity shortcuts
+            inputs[i] = new String(TITLES[random.nextInt(TITLES.length)] + " " + random.nextInt(64));
+        }
+    }
+
+    @Benchmark
+    public void replaceAllChain(Blackhole blackhole) {
+        for (String input : inputs) {
+            blackhole.consume(input
+                    .replaceAll("\\.", "_")
+                    .replaceAll("<", "_")
+                    .replaceAll(">", "_")
+                    .replaceAll("/", "_")
+                    .replaceAll("\\\\", "_")
+                    .replaceAll(":", "_"));
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        for (String input : inputs) {
+            blackhole.consume(FileNameSanitizer.text(input));
+        }
+    }
+
+    @Benchmark
+    public void singlePassCached(Blackhole blackhole) {
+        for (String input : inputs) {
+            blackhole.consume(FileNameSanitizer.cachedText(input));
+        }
+    }
+}
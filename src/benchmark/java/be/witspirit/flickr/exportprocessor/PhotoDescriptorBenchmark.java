@@ -0,0 +1,55 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a PhotoDescriptor, which is dominated by the derivation of the destination file name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoDescriptorBenchmark {
+    private static final String[] TAGS = {"zomer", "st petersburg", "square format", "kids", "instagram app", "family", "beach", "a/b"};
+
+    private String name;
+    private Set<String> tags;
+
+    @Setup
+    public void generatePhoto() {
+        Random random = new Random(42);
+        name = "Trip to St. Petersburg " + random.nextInt(1000);
+        tags = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            tags.add(TAGS[random.nextInt(TAGS.length)]);
+        }
+    }
+
+    @Benchmark
+    public PhotoDescriptor deriveDestinationFileName() {
+        return PhotoDescriptor.builder()
+                .id("43536291795")
+                .name(name)
+                .dateTaken(LocalDateTime.of(2018, 8, 30, 14, 2, 11))
+                .flickrFilename("https://farm2.staticflickr.com/1842/43536291795_fcd1b8ad82_o.jpg")
+                .tags(tags)
+                .build();
+    }
+}
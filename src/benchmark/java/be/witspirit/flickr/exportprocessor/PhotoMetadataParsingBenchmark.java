@@ -0,0 +1,55 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the photo metadata JSON, as the MetadataService does for every photo, compared to plain data binding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoMetadataParsingBenchmark {
+    private ObjectMapper objectMapper;
+    private PhotoMetaReader reader;
+    private byte[][] documents;
+
+    @Setup
+    public void generateDocuments() {
+        objectMapper = new AppConfig().objectMapper();
+        reader = new PhotoMetaReader(objectMapper);
+        documents = BenchmarkFixtures.photoJson(1024, 42);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        for (byte[] document : documents) {
+            blackhole.consume(reader.read(document));
+        }
+    }
+
+    @Benchmark
+    public void dataBinding(Blackhole blackhole) throws IOException {
+        for (byte[] document : documents) {
+            blackhole.consume(objectMapper.readValue(document, PhotoMeta.class));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deriving the destination structure from the parsed metadata: the PhotoDescriptors, the Albums they go in and the
+ * index of the Albums every photo appears in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructuringBenchmark {
+    @Param({"10000", "100000"})
+    private int photoCount;
+
+    private StructuringService structuringService;
+    private List<Album> albums;
+    private Map<String, PhotoMeta> photoMetaById;
+    private PhotoCatalog catalog;
+    private List<AlbumDescriptor> albumDescriptors;
+
+    @Setup
+    public void generateExport() {
+        structuringService = new StructuringService("/benchmark/destination");
+        photoMetaById = BenchmarkFixtures.photoMetadata(photoCount, 42, new PhotoMetaReader(new AppConfig().objectMapper()));
+        albums = BenchmarkFixtures.albums(photoCount, photoCount / 50, 42);
+        catalog = PhotoCatalog.of(photoMetaById.values());
+        albumDescriptors = structuringService.deriveAlbumStructure(albums, photoMetaById);
+    }
+
+    @Benchmark
+    public void toPhotoDescriptor(Blackhole blackhole) {
+        for (PhotoMeta photoMeta : photoMetaById.values()) {
+            blackhole.consume(structuringService.toPhotoDescriptor(photoMeta));
+        }
+    }
+
+    @Benchmark
+    public List<AlbumDescriptor> deriveAlbumStructure() {
+        return structuringService.deriveAlbumStructure(albums, photoMetaById);
+    }
+
+    @Benchmark
+    public List<AlbumDescriptor> deriveAlbumStructureFromCatalog() {
+        return structuringService.deriveAlbumStructure(albums, catalog);
+    }
+
+    @Benchmark
+    public Map<PhotoDescriptor, List<AlbumDescriptor>> computePhotoDescriptorToAlbumDescriptorIndex() {
+        return structuringService.computePhotoDescriptorToAlbumDescriptorIndex(albumDescriptors);
+    }
+}
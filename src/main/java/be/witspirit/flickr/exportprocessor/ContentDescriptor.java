@@ -1,45 +1,128 @@
 package be.witspirit.flickr.exportprocessor;
 
 import java.nio.file.Path;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
 
 public class ContentDescriptor {
-    private static final Pattern CONTENT_PATTERN_1 = Pattern.compile("^(\\d{11})_(.{10})(_o)?\\.(.+)$");
-    private static final Pattern CONTENT_PATTERN_2 = Pattern.compile("^(.+)_(\\d+)(_o)?\\.(.+)$");
+    // Flickr uses two naming patterns for the content files:
+    //  Pattern 1 : <11 digit id>_<10 character name>[_o].<extension>
+    //  Pattern 2 : <name>_<numeric id>[_o].<extension>
+    // Pattern 1 takes precedence. In pattern 2, the name is as long as possible.
+    private static final int PATTERN_1_ID_LENGTH = 11;
+    private static final int PATTERN_1_NAME_LENGTH = 10;
+    private static final String ORIGINAL_SUFFIX = "_o";
 
     private Path path;
+    private long size;
 
     private String id;
     private String name;
     private String extension;
 
     public ContentDescriptor(Path path) {
+        this(path, -1);
+    }
+
+    public ContentDescriptor(Path path, long size) {
+        ContentDescriptor parsed = parse(path, size).orElseThrow(() -> new IllegalArgumentException(path + " does not represent a Content filename"));
         this.path = path;
+        this.size = size;
+        this.id = parsed.id;
+        this.name = parsed.name;
+        this.extension = parsed.extension;
+    }
 
+    private ContentDescriptor(Path path, long size, String id, String name, String extension) {
+        this.path = path;
+        this.size = size;
+        this.id = id;
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * @return The ContentDescriptor, or empty if the filename does not follow one of the Content filename patterns
+     */
+    public static Optional<ContentDescriptor> parse(Path path, long size) {
         String fileName = path.getFileName().toString();
+        ContentDescriptor descriptor = parsePattern1(path, size, fileName);
+        if (descriptor == null) {
+            descriptor = parsePattern2(path, size, fileName);
+        }
+        return Optional.ofNullable(descriptor);
+    }
 
-        Matcher pattern1Matcher = CONTENT_PATTERN_1.matcher(fileName);
-        if (pattern1Matcher.matches()) {
-            this.name = pattern1Matcher.group(2);
-            this.id = pattern1Matcher.group(1);
-            this.extension = pattern1Matcher.group(4);
-        } else {
-            Matcher pattern2Matcher = CONTENT_PATTERN_2.matcher(fileName);
-            if (pattern2Matcher.matches()) {
-                this.name = pattern2Matcher.group(1);
-                this.id = pattern2Matcher.group(2);
-                this.extension = pattern2Matcher.group(4);
-            } else {
-                throw new IllegalArgumentException(path + " does not represent a Content filename");
+    private static ContentDescriptor parsePattern1(Path path, long size, String fileName) {
+        int nameStart = PATTERN_1_ID_LENGTH + 1;
+        int nameEnd = nameStart + PATTERN_1_NAME_LENGTH;
+        if (fileName.length() < nameEnd + 2 || fileName.charAt(PATTERN_1_ID_LENGTH) != '_' || !isDigits(fileName, 0, PATTERN_1_ID_LENGTH)) {
+            return null;
+        }
+        int extensionStart = extensionStart(fileName, nameEnd);
+        if (extensionStart < 0) {
+            return null;
+        }
+        return new ContentDescriptor(path, size, fileName.substring(0, PATTERN_1_ID_LENGTH), fileName.substring(nameStart, nameEnd), fileName.substring(extensionStart));
+    }
+
+    private static ContentDescriptor parsePattern2(Path path, long size, String fileName) {
+        // Working from the right, so the first match has the longest name
+        for (int separator = fileName.lastIndexOf('_'); separator > 0; separator = fileName.lastIndexOf('_', separator - 1)) {
+            int idEnd = separator + 1;
+            while (idEnd < fileName.length() && isDigit(fileName.charAt(idEnd))) {
+                idEnd++;
+            }
+            if (idEnd == separator + 1) {
+                continue;
+            }
+            int extensionStart = extensionStart(fileName, idEnd);
+            if (extensionStart >= 0) {
+                return new ContentDescriptor(path, size, fileName.substring(separator + 1, idEnd), fileName.substring(0, separator), fileName.substring(extensionStart));
             }
         }
+        return null;
+    }
+
+    /**
+     * @return The start of a non-empty extension following an optional _o at the given position, or -1 if there is none
+     */
+    private static int extensionStart(String fileName, int position) {
+        if (fileName.startsWith(ORIGINAL_SUFFIX, position)) {
+            int afterSuffix = position + ORIGINAL_SUFFIX.length();
+            if (afterSuffix + 1 < fileName.length() && fileName.charAt(afterSuffix) == '.') {
+                return afterSuffix + 1;
+            }
+        }
+        if (position + 1 < fileName.length() && fileName.charAt(position) == '.') {
+            return position + 1;
+        }
+        return -1;
+    }
+
+    private static boolean isDigits(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     public Path getPath() {
         return path;
     }
 
+    /**
+     * @return The size of the content as listed, or -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
     public String getId() {
         return id;
     }
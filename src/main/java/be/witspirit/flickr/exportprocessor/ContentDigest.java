@@ -0,0 +1,87 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests of content files, optionally computed while copying the file.
+ */
+public class ContentDigest {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    static final String PARTIAL_SUFFIX = ".part";
+    // Direct buffers avoid the extra copy into the heap, while plain reads keep working on network shares
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    public static String of(Path path) throws IOException {
+        MessageDigest messageDigest = newMessageDigest();
+        ByteBuffer buffer = BUFFER.get();
+        try (ReadableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                messageDigest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Copies the source to the (new) destination, computing the digest of the source in the same pass.
+     * The content is written to a partial file next to the destination, which is only renamed to the destination once
+     * complete. So a failed or interrupted copy never leaves a partial destination, which would be reported as
+     * different content from then on. Like a plain copy, it fails rather than replacing a destination which exists.
+     * @return The digest of the copied content
+     */
+    public static String copy(Path source, Path destination) throws IOException {
+        MessageDigest messageDigest = newMessageDigest();
+        ByteBuffer buffer = BUFFER.get();
+        // Overwrites whatever an interrupted run left behind
+        Path partial = destination.resolveSibling(destination.getFileName() + PARTIAL_SUFFIX);
+        try {
+            // A byte channel rather than a FileChannel, which for an entry in a ZIP archive would inflate it to a temporary file first
+            try (ReadableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                buffer.clear();
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    messageDigest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            // Not an ATOMIC_MOVE, which silently replaces an existing destination on POSIX. Both are in the same folder,
+            // so this is still a single rename.
+            Files.move(partial, destination);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
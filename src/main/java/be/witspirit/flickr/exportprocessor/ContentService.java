@@ -1,43 +1,191 @@
 package be.witspirit.flickr.exportprocessor;
 
+import be.witspirit.flickr.exportprocessor.index.LongObjectMap;
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ContentService {
-    private Path contentPath;
+    private static final Logger LOG = LoggerFactory.getLogger(ContentService.class);
+    private static final Counter FILES_INDEXED = MetricsRegistry.global().counter("content.files");
+    private static final Counter BYTES_INDEXED = MetricsRegistry.global().counter("content.bytes");
+    private static final Counter UNRECOGNIZED = MetricsRegistry.global().counter("content.errors");
 
-    public ContentService(@Value("${folder.photos}") String contentFolder) {
+    private final DirectoryIndex directoryIndex;
+    private final Shard shard;
+    private final Path contentPath;
+    // The data download ZIP archives found in the content folder, opened as file systems
+    private final Map<Path, FileSystem> archives = new ConcurrentHashMap<>();
+    // Indexes the archives concurrently, as opening one involves reading its complete central directory
+    private final ExecutorService executor;
+
+    public ContentService(DirectoryIndex directoryIndex, Shard shard, @Value("${folder.photos}") String contentFolder,
+                          @Value("${content.workers}") int workers) {
+        this.directoryIndex = directoryIndex;
+        this.shard = shard;
         this.contentPath = Path.of(contentFolder);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "content-indexer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public Map<String, ContentDescriptor> loadDescriptors() {
+        return parseDescriptors()
+                .collect(Collectors.toMap(ContentDescriptor::getId, Function.identity(), ContentService::preferred));
+    }
+
+    /**
+     * @return The content descriptors by their numeric photo id
+     */
+    public LongObjectMap<ContentDescriptor> loadDescriptorIndex() {
+        List<DirectoryEntry> entries = directoryIndex.list(contentPath);
+        LongObjectMap<ContentDescriptor> contentById = new LongObjectMap<>(entries.size());
+        parseDescriptors().forEach(contentDescriptor -> {
+            long photoId = Long.parseLong(contentDescriptor.getId());
+            ContentDescriptor existing = contentById.put(photoId, contentDescriptor);
+            if (existing != null) {
+                contentById.put(photoId, preferred(existing, contentDescriptor));
+            }
+        });
+        return contentById;
+    }
+
+    /**
+     * A photo can be both extracted and still inside its data download archive. The extracted file is preferred, as it
+     * can be moved or linked, rather than copied out of the archive.
+     */
+    private static ContentDescriptor preferred(ContentDescriptor first, ContentDescriptor second) {
+        LOG.debug("Found photo {} both as {} and {}", first.getId(), first.getPath().toUri(), second.getPath().toUri());
+        return isExtracted(first) || !isExtracted(second) ? first : second;
+    }
+
+    private static boolean isExtracted(ContentDescriptor contentDescriptor) {
+        return contentDescriptor.getPath().getFileSystem() == FileSystems.getDefault();
+    }
+
+    private Stream<ContentDescriptor> parseDescriptors() {
+        List<DirectoryEntry> entries = directoryIndex.list(contentPath);
+        List<Future<List<DirectoryEntry>>> indexedArchives = new ArrayList<>();
+        for (DirectoryEntry entry : entries) {
+            if (isArchive(entry)) {
+                indexedArchives.add(executor.submit(() -> archiveEntries(entry.getPath())));
+            }
+        }
+        List<DirectoryEntry> archiveEntries = new ArrayList<>();
         try {
-            return Files.list(contentPath)
-                    .map(path -> {
-                        try {
-                            return new ContentDescriptor(path);
-                        } catch (IllegalArgumentException e) {
-                            System.err.println(e.getMessage());
-                            return null;
+            for (Future<List<DirectoryEntry>> indexedArchive : indexedArchives) {
+                archiveEntries.addAll(indexedArchive.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing content archives in "+contentPath, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to index content archives in "+contentPath, e.getCause());
+        }
+        return Stream.concat(entries.stream().filter(entry -> !isArchive(entry)), archiveEntries.stream())
+                .map(entry -> {
+                    Optional<ContentDescriptor> contentDescriptor = ContentDescriptor.parse(entry.getPath(), entry.getSize());
+                    if (contentDescriptor.isEmpty()) {
+                        UNRECOGNIZED.increment();
+                        LOG.warn("{} does not represent a Content filename", entry.getPath());
+                    } else {
+                        FILES_INDEXED.increment();
+                        BYTES_INDEXED.add(entry.getSize());
+                    }
+                    return contentDescriptor;
+                })
+                .flatMap(Optional::stream)
+                // The content of the photos of other shards is left to those
+                .filter(contentDescriptor -> shard.contains(contentDescriptor.getId()));
+    }
+
+    private static boolean isArchive(DirectoryEntry entry) {
+        return entry.getFileName().toLowerCase().endsWith(".zip");
+    }
+
+    /**
+     * @return The files in a data download archive. The paths are inside the archive, so they can be read in place.
+     */
+    private List<DirectoryEntry> archiveEntries(Path archivePath) {
+        FileSystem archive = archives.computeIfAbsent(archivePath, this::openArchive);
+        List<DirectoryEntry> entries = new ArrayList<>();
+        try {
+            for (Path root : archive.getRootDirectories()) {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile()) {
+                            entries.add(new DirectoryEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
                         }
-                    })
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toMap(ContentDescriptor::getId, Function.identity()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Failed to list "+contentPath, e);
+            throw new RuntimeException("Failed to list content archive "+archivePath, e);
         }
+        LOG.info("Indexed {} entries in content archive {}", entries.size(), archivePath);
+        return entries;
+    }
+
+    private FileSystem openArchive(Path archivePath) {
+        try {
+            return FileSystems.newFileSystem(archivePath, (ClassLoader) null);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open content archive "+archivePath, e);
+        }
+    }
+
+    /**
+     * Closes the content archives. Their entries can no longer be transferred afterwards.
+     */
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        archives.forEach((archivePath, archive) -> {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close content archive {}", archivePath, e);
+            }
+        });
+        archives.clear();
     }
 
     public void log(Map<String, ContentDescriptor> contentById) {
-        contentById.values().forEach(System.out::println);
+        contentById.values().forEach(contentDescriptor -> LOG.debug("{}", contentDescriptor));
     }
 }
@@ -0,0 +1,124 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiPredicate;
+
+/**
+ * Cached name -> size snapshot of the destination directories. Each directory is listed once, with its attributes,
+ * instead of checking existence and size of every destination file separately, which is very slow on network shares.
+ * Files written during the run are recorded, so the snapshot remains correct.
+ * On a case insensitive file system (e.g. NTFS), names which only differ in case refer to the same file, so the
+ * snapshot of such a directory ignores case as well.
+ */
+public class DestinationIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(DestinationIndex.class);
+
+    private final Map<Path, Map<String, Long>> directories = new ConcurrentHashMap<>();
+    private final BiPredicate<Path, Set<String>> caseInsensitive;
+
+    public DestinationIndex() {
+        this(DestinationIndex::isCaseInsensitive);
+    }
+
+    /**
+     * @param caseInsensitive Tells whether a directory, given its listed names, is on a case insensitive file system
+     */
+    DestinationIndex(BiPredicate<Path, Set<String>> caseInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    public OptionalLong size(Path file) {
+        Long size = directory(file.getParent()).get(file.getFileName().toString());
+        return size == null ? OptionalLong.empty() : OptionalLong.of(size);
+    }
+
+    public void recordWritten(Path file, long size) {
+        directory(file.getParent()).put(file.getFileName().toString(), size);
+    }
+
+    private Map<String, Long> directory(Path directory) {
+        return directories.computeIfAbsent(directory, this::list);
+    }
+
+    private Map<String, Long> list(Path directory) {
+        Map<String, Long> sizesByName = new ConcurrentHashMap<>();
+        // The file tree walker hands us the attributes the directory listing already holds, rather than reading them
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        sizesByName.put(file.getFileName().toString(), attributes.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            LOG.trace("Destination directory {} does not exist yet", directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list destination directory "+directory, e);
+        }
+        if (!caseInsensitive.test(directory, sizesByName.keySet())) {
+            return sizesByName;
+        }
+        Map<String, Long> caseInsensitiveSizesByName = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitiveSizesByName.putAll(sizesByName);
+        return caseInsensitiveSizesByName;
+    }
+
+    /**
+     * Probes whether the file system ignores case, by looking up a listed name (or the name of the directory itself, or
+     * of its closest existing parent) in another case. That takes a single stat per directory.
+     */
+    static boolean isCaseInsensitive(Path directory, Set<String> names) {
+        for (String name : names) {
+            if (hasCase(name)) {
+                return isSameFileInOtherCase(directory.resolve(name));
+            }
+        }
+        for (Path existing = directory; existing != null && existing.getFileName() != null; existing = existing.getParent()) {
+            if (hasCase(existing.getFileName().toString()) && Files.exists(existing)) {
+                return isSameFileInOtherCase(existing);
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCase(String name) {
+        return !otherCase(name).equals(name);
+    }
+
+    private static boolean isSameFileInOtherCase(Path path) {
+        try {
+            return Files.isSameFile(path, path.resolveSibling(otherCase(path.getFileName().toString())));
+        } catch (IOException e) {
+            // Typically, no file by the other name exists
+            return false;
+        }
+    }
+
+    private static String otherCase(String name) {
+        StringBuilder otherCase = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            otherCase.append(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+        }
+        return otherCase.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manifest with the digests of the transferred files, in the format of sha256sum, so it can also be checked with
+ * 'sha256sum -c'.
+ */
+public class DigestManifest implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DigestManifest.class);
+
+    private final Path manifestPath;
+    private final Map<String, String> digestsByPath;
+    private final BufferedWriter writer;
+
+    private DigestManifest(Path manifestPath, Map<String, String> digestsByPath) throws IOException {
+        this.manifestPath = manifestPath;
+        this.digestsByPath = digestsByPath;
+        this.writer = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public static DigestManifest open(Path manifestPath) {
+        try {
+            Map<String, String> digestsByPath = new ConcurrentHashMap<>();
+            if (Files.exists(manifestPath)) {
+                List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    int separator = line.indexOf("  ");
+                    if (separator > 0) {
+                        digestsByPath.put(line.substring(separator + 2), line.substring(0, separator));
+                    }
+                }
+                LOG.info("Read {} digests from manifest {}", digestsByPath.size(), manifestPath);
+            }
+            return new DigestManifest(manifestPath, digestsByPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open digest manifest "+manifestPath, e);
+        }
+    }
+
+    /**
+     * @return The recorded digest of the file, or null if we don't have one
+     */
+    public String digest(Path file) {
+        return digestsByPath.get(file.toString());
+    }
+
+    public synchronized void record(Path file, String digest) {
+        digestsByPath.put(file.toString(), digest);
+        try {
+            writer.write(digest + "  " + file + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to digest manifest "+manifestPath, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
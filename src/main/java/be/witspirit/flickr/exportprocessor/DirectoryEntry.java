@@ -0,0 +1,38 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.nio.file.Path;
+
+public class DirectoryEntry {
+    /**
+     * The size or last modified time of an entry listed without its attributes
+     */
+    public static final long UNKNOWN = -1;
+
+    private final Path path;
+    private final String fileName;
+    private final long size;
+    private final long lastModified;
+
+    public DirectoryEntry(Path path, long size, long lastModified) {
+        this.path = path;
+        this.fileName = path.getFileName().toString();
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,100 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import be.witspirit.flickr.exportprocessor.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared listing of the source folders. Every folder is scanned once, and all services are served from that single
+ * scan. Listing large folders on a NAS is slow, so we don't want to repeat it. The attributes are read along with the
+ * listing where the platform provides them (e.g. on Windows), and take a stat per file elsewhere. So services which
+ * only need the names can do without them.
+ */
+@Component
+public class DirectoryIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryIndex.class);
+    private static final Timer SCAN_TIME = MetricsRegistry.global().timer("directory.scan");
+
+    private final Map<Path, List<DirectoryEntry>> listings = new ConcurrentHashMap<>();
+    private final Map<Path, List<DirectoryEntry>> nameListings = new ConcurrentHashMap<>();
+
+    /**
+     * @return The regular files in the directory, with their attributes, as scanned the first time they were requested
+     */
+    public List<DirectoryEntry> list(Path directory) {
+        return listings.computeIfAbsent(directory, this::scan);
+    }
+
+    /**
+     * Lists the directory without reading the attributes, unless they were read already. Their size and last modified
+     * time are {@link DirectoryEntry#UNKNOWN}. Telling files from folders takes the attributes as well, so any
+     * subfolders are listed too.
+     * @return The entries in the directory, as scanned the first time they were requested
+     */
+    public List<DirectoryEntry> listNames(Path directory) {
+        List<DirectoryEntry> listing = listings.get(directory);
+        return listing != null ? listing : nameListings.computeIfAbsent(directory, this::scanNames);
+    }
+
+    /**
+     * Drops the cached listing, e.g. after files were moved out of the directory.
+     */
+    public void invalidate(Path directory) {
+        listings.remove(directory);
+        nameListings.remove(directory);
+    }
+
+    private List<DirectoryEntry> scan(Path directory) {
+        long start = System.nanoTime();
+        List<DirectoryEntry> entries = new ArrayList<>();
+        // The file tree walker hands us the attributes the directory listing already holds, rather than reading them
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        entries.add(new DirectoryEntry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list "+directory, e);
+        }
+        SCAN_TIME.recordSince(start);
+        LOG.info("Scanned {} files in {} in {} ms", entries.size(), directory, (System.nanoTime() - start) / 1_000_000);
+        return Collections.unmodifiableList(entries);
+    }
+
+    private List<DirectoryEntry> scanNames(Path directory) {
+        long start = System.nanoTime();
+        List<DirectoryEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                entries.add(new DirectoryEntry(path, DirectoryEntry.UNKNOWN, DirectoryEntry.UNKNOWN));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list "+directory, e);
+        }
+        SCAN_TIME.recordSince(start);
+        LOG.info("Listed {} entries in {} in {} ms", entries.size(), directory, (System.nanoTime() - start) / 1_000_000);
+        return Collections.unmodifiableList(entries);
+    }
+}
@@ -0,0 +1,103 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Detects byte identical content, as Flickr exports contain photos which were uploaded multiple times.
+ * Only files which share their size with another file are hashed.
+ */
+@Service
+public class DuplicateDetectionService {
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateDetectionService.class);
+
+    private final int workers;
+
+    public DuplicateDetectionService(@Value("${duplicates.workers}") int workers) {
+        this.workers = workers;
+    }
+
+    public DuplicateReport findDuplicates(Collection<ContentDescriptor> contentItems) {
+        long start = System.nanoTime();
+
+        Map<Long, List<ContentDescriptor>> itemsBySize = new HashMap<>();
+        for (ContentDescriptor contentItem : contentItems) {
+            itemsBySize.computeIfAbsent(size(contentItem), size -> new ArrayList<>()).add(contentItem);
+        }
+
+        List<ContentDescriptor> candidates = new ArrayList<>();
+        List<Long> candidateSizes = new ArrayList<>();
+        itemsBySize.forEach((size, items) -> {
+            if (items.size() > 1) {
+                candidates.addAll(items);
+                items.forEach(item -> candidateSizes.add(size));
+            }
+        });
+        LOG.info("{} of {} content items share their size with another item. Hashing those...", candidates.size(), contentItems.size());
+
+        Map<String, List<ContentDescriptor>> itemsByDigest = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<String>> digests = new ArrayList<>(candidates.size());
+            for (ContentDescriptor candidate : candidates) {
+                digests.add(executor.submit(() -> ContentDigest.of(candidate.getPath())));
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                ContentDescriptor candidate = candidates.get(i);
+                // Also keying on size, so we don't have to rely on the digest alone
+                String key = candidateSizes.get(i) + ":" + digests.get(i).get();
+                itemsByDigest.computeIfAbsent(key, digest -> new ArrayList<>()).add(candidate);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while hashing content", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to hash content", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Comparator<ContentDescriptor> byId = Comparator.comparing(ContentDescriptor::getId, Comparator.comparingLong(Long::parseLong));
+        List<DuplicateReport.DuplicateGroup> groups = new ArrayList<>();
+        itemsByDigest.forEach((key, items) -> {
+            if (items.size() > 1) {
+                items.sort(byId);
+                int separator = key.indexOf(':');
+                groups.add(new DuplicateReport.DuplicateGroup(Long.parseLong(key.substring(0, separator)), key.substring(separator + 1), items));
+            }
+        });
+        groups.sort(Comparator.comparing(DuplicateReport.DuplicateGroup::getOriginal, byId));
+
+        DuplicateReport report = new DuplicateReport(groups);
+        LOG.info("Duplicate detection completed in {} ms: {}", (System.nanoTime() - start) / 1_000_000, report);
+        return report;
+    }
+
+    private long size(ContentDescriptor contentItem) {
+        if (contentItem.getSize() >= 0) {
+            return contentItem.getSize();
+        }
+        Path path = contentItem.getPath();
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to obtain file size of "+path, e);
+        }
+    }
+}
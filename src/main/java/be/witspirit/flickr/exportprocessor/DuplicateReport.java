@@ -0,0 +1,86 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class DuplicateReport {
+    private final List<DuplicateGroup> groups;
+
+    public DuplicateReport(List<DuplicateGroup> groups) {
+        this.groups = groups;
+    }
+
+    public List<DuplicateGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return The ids of all content items which are a duplicate of an item we retain
+     */
+    public Set<String> getRedundantIds() {
+        return groups.stream()
+                .flatMap(group -> group.getDuplicates().stream())
+                .map(ContentDescriptor::getId)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return The id of the item we retain, by the id of each of its duplicates
+     */
+    public Map<String, String> getOriginalIds() {
+        Map<String, String> originalIds = new HashMap<>();
+        for (DuplicateGroup group : groups) {
+            for (ContentDescriptor duplicate : group.getDuplicates()) {
+                originalIds.put(duplicate.getId(), group.getOriginal().getId());
+            }
+        }
+        return originalIds;
+    }
+
+    public long getRedundantBytes() {
+        return groups.stream().mapToLong(group -> group.getSize() * group.getDuplicates().size()).sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d groups of identical content, %d redundant files, %d MB redundant", groups.size(), getRedundantIds().size(), getRedundantBytes() / (1024 * 1024));
+    }
+
+    public static class DuplicateGroup {
+        private final long size;
+        private final String digest;
+        private final List<ContentDescriptor> items; // Ordered by id, so the earliest upload comes first
+
+        public DuplicateGroup(long size, String digest, List<ContentDescriptor> items) {
+            this.size = size;
+            this.digest = digest;
+            this.items = items;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public List<ContentDescriptor> getItems() {
+            return items;
+        }
+
+        /**
+         * @return The item we retain, being the earliest upload
+         */
+        public ContentDescriptor getOriginal() {
+            return items.get(0);
+        }
+
+        public List<ContentDescriptor> getDuplicates() {
+            return items.subList(1, items.size());
+        }
+    }
+}
@@ -1,15 +1,79 @@
 package be.witspirit.flickr.exportprocessor;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
 public class FileNameSanitizer {
+    private static final boolean[] TEXT_REPLACED = table(".<>/\\:");
+    private static final boolean[] TAG_REPLACED = table(" \\/");
+
+    // Album titles repeat a lot, so we remember their sanitized form. Tags are covered by the TagDictionary.
+    private static final int CACHE_CAPACITY = 16 * 1024;
+    private static final Map<String, String> TEXT_CACHE = new ConcurrentHashMap<>();
 
+    /**
+     * Replaces the characters which are not allowed (or confusing) in file names by _
+     */
     public static String text(String input) {
-        return input
-                .replaceAll("\\.", "_")
-                .replaceAll("<", "_")
-                .replaceAll(">", "_")
-                .replaceAll("/", "_")
-                .replaceAll("\\\\", "_")
-                .replaceAll(":", "_")
-                ;
+        return replace(input, TEXT_REPLACED, '_');
+    }
+
+    /**
+     * Replaces spaces and path separators in a tag by -
+     */
+    public static String tag(String input) {
+        return replace(input, TAG_REPLACED, '-');
+    }
+
+    /**
+     * As {@link #text(String)}, but cached, for inputs that are likely to be repeated, like Album titles.
+     */
+    public static String cachedText(String input) {
+        return cached(TEXT_CACHE, input, FileNameSanitizer::text);
+    }
+
+    private static String cached(Map<String, String> cache, String input, UnaryOperator<String> sanitizer) {
+        String sanitized = cache.get(input);
+        if (sanitized == null) {
+            sanitized = sanitizer.apply(input);
+            if (cache.size() >= CACHE_CAPACITY) {
+                // Simply starting over keeps the cache bounded, without the bookkeeping of an LRU
+                cache.clear();
+            }
+            cache.put(input, sanitized);
+        }
+        return sanitized;
+    }
+
+    private static String replace(String input, boolean[] replaced, char replacement) {
+        int length = input.length();
+        int first = 0;
+        while (first < length && !isReplaced(input.charAt(first), replaced)) {
+            first++;
+        }
+        if (first == length) {
+            return input; // Nothing to replace, so no need to allocate
+        }
+
+        char[] chars = input.toCharArray();
+        for (int i = first; i < length; i++) {
+            if (isReplaced(chars[i], replaced)) {
+                chars[i] = replacement;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static boolean isReplaced(char c, boolean[] replaced) {
+        return c < replaced.length && replaced[c];
+    }
+
+    private static boolean[] table(String characters) {
+        boolean[] table = new boolean[128];
+        for (char c : characters.toCharArray()) {
+            table[c] = true;
+        }
+        return table;
     }
 }
@@ -0,0 +1,80 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The metadata ZIP archive as delivered by Flickr, read in place instead of extracting it first. Entries are presented
+ * as if the archive were a folder: the path of an entry is the archive path resolved with the entry name.
+ * Entries can be read from multiple threads at once. The entries are indexed when the archive is opened, so
+ * listing and looking them up doesn't take a pass over the central directory.
+ */
+class MetadataArchive implements Closeable {
+    private final Path archivePath;
+    private final ZipFile zipFile;
+    private final Map<Path, ZipEntry> entriesByPath = new LinkedHashMap<>();
+    // The path of the first entry with each file name, regardless of the folder it is in
+    private final Map<String, Path> pathsByFileName = new HashMap<>();
+    private final List<DirectoryEntry> entries;
+
+    private MetadataArchive(Path archivePath, ZipFile zipFile) {
+        this.archivePath = archivePath;
+        this.zipFile = zipFile;
+        zipFile.stream()
+                .filter(entry -> !entry.isDirectory())
+                .forEach(entry -> entriesByPath.put(archivePath.resolve(entry.getName()), entry));
+        List<DirectoryEntry> entries = new ArrayList<>(entriesByPath.size());
+        entriesByPath.forEach((path, entry) -> {
+            entries.add(new DirectoryEntry(path, entry.getSize(), entry.getTime()));
+            pathsByFileName.putIfAbsent(path.getFileName().toString(), path);
+        });
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    static MetadataArchive open(Path archivePath) {
+        try {
+            return new MetadataArchive(archivePath, new ZipFile(archivePath.toFile()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open metadata archive "+archivePath, e);
+        }
+    }
+
+    List<DirectoryEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * @return The entry, inflated while it is read, or null if the archive has no such entry
+     */
+    InputStream read(Path entryPath) throws IOException {
+        ZipEntry entry = entriesByPath.get(entryPath);
+        return entry == null ? null : zipFile.getInputStream(entry);
+    }
+
+    /**
+     * @return The path of the first entry with the given file name, regardless of the folder it is in, or null if none
+     */
+    Path find(String fileName) {
+        Path rootPath = archivePath.resolve(fileName);
+        return entriesByPath.containsKey(rootPath) ? rootPath : pathsByFileName.get(fileName);
+    }
+
+    @Override
+    public void close() {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close metadata archive "+archivePath, e);
+        }
+    }
+}
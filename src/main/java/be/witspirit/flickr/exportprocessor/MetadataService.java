@@ -1,91 +1,527 @@
 package be.witspirit.flickr.exportprocessor;
 
+import be.witspirit.flickr.exportprocessor.MetadataSnapshot.FileStamp;
+import be.witspirit.flickr.exportprocessor.index.LongSet;
 import be.witspirit.flickr.exportprocessor.json.Album;
 import be.witspirit.flickr.exportprocessor.json.Albums;
 import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import be.witspirit.flickr.exportprocessor.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Service
 public class MetadataService {
     private static final Logger LOG = LoggerFactory.getLogger(MetadataService.class);
 
-    private static final Pattern PHOTO_METADATA_PATTERN = Pattern.compile("photo_(\\d+).json");
+    private static final String PHOTO_METADATA_PREFIX = "photo_";
+    private static final String PHOTO_METADATA_SUFFIX = ".json";
+
+    private static final Counter FILES_PARSED = MetricsRegistry.global().counter("metadata.files");
+    private static final Counter BYTES_PARSED = MetricsRegistry.global().counter("metadata.bytes");
+    private static final Counter PARSE_ERRORS = MetricsRegistry.global().counter("metadata.errors");
+    private static final Timer PARSE_TIME = MetricsRegistry.global().timer("metadata.parse");
 
     private final ObjectMapper objectMapper;
-    private final ObjectReader photoMetaReader;
+    private final DirectoryIndex directoryIndex;
+    private final Shard shard;
     private final Path metadataPath;
+    private final int workers;
+    private final Path snapshotPath;
+
+    private volatile MetadataArchive archive;
 
-    public MetadataService(ObjectMapper objectMapper, @Value("${folder.metadata}") String metadataFolder) {
+    public MetadataService(ObjectMapper objectMapper,
+                           DirectoryIndex directoryIndex,
+                           Shard shard,
+                           @Value("${folder.metadata}") String metadataFolder,
+                           @Value("${metadata.workers}") int workers,
+                           @Value("${metadata.snapshot}") String snapshotFile) {
         this.objectMapper = objectMapper;
-        this.photoMetaReader = objectMapper.readerFor(PhotoMeta.class);
+        this.directoryIndex = directoryIndex;
+        this.shard = shard;
         this.metadataPath = Path.of(metadataFolder);
+        this.workers = workers;
+        // Every shard only holds its own photos, so it keeps its own snapshot
+        this.snapshotPath = StringUtils.hasText(snapshotFile) ? shard.local(Path.of(snapshotFile)) : null;
     }
 
     public Map<String, PhotoMeta> loadPhotoMetadata() {
+        PhotoMetadataLoadResult result = loadPhotoMetadata(workers);
+        result.getFailures().forEach((path, e) -> LOG.error("Failed to parse Photo metadata from {}", path, e));
+        return result.getPhotoMetaById();
+    }
+
+    /**
+     * @return The photo metadata as a column oriented catalog. Every photo is added to the catalog as soon as it is
+     * parsed, so the PhotoMeta objects are not retained. Only with a snapshot, the complete map is loaded first, as
+     * refreshing the snapshot needs it.
+     */
+    public PhotoCatalog loadPhotoCatalog() {
+        if (snapshotPath != null) {
+            return PhotoCatalog.of(loadPhotoMetadata().values());
+        }
+        MetadataArchive archive = archive();
+        Predicate<String> needed = neededPhotos(archive);
+        List<String> photoIds = new ArrayList<>();
+        for (String photoId : photoMetadataEntries(archive).keySet()) {
+            if (needed.test(photoId)) {
+                photoIds.add(photoId);
+            }
+        }
+        PhotoCatalog.Builder catalog = new PhotoCatalog.Builder(photoIds.size());
+        streamPhotoMetadata(photoIds, (photoId, photoMeta) -> {
+            if (photoMeta != null) {
+                synchronized (catalog) {
+                    catalog.add(photoMeta);
+                }
+            }
+            return true;
+        });
+        return catalog.build();
+    }
+
+    public PhotoMetadataLoadResult loadPhotoMetadata(int workers) {
+        MetadataArchive archive = archive();
+        return loadPhotoMetadata(workers, archive);
+    }
+
+    private PhotoMetadataLoadResult loadPhotoMetadata(int workers, MetadataArchive archive) {
+        Map<Path, FileStamp> photoMetadataFiles = listPhotoMetadataFiles(archive);
+        if (!shard.isAll()) {
+            Predicate<String> needed = neededPhotos(archive);
+            photoMetadataFiles.keySet().removeIf(path -> !needed.test(photoMetadataId(path.getFileName().toString())));
+        }
+        // A reader of our own, so the exif of this load is released along with its result
+        PhotoMetaReader photoMetaReader = new PhotoMetaReader(objectMapper);
+        MetadataSnapshot snapshot = readSnapshot(photoMetaReader);
+
+        long start = System.nanoTime();
+        Map<String, PhotoMeta> photoMetaById = new ConcurrentHashMap<>();
+        Map<String, MetadataSnapshot.Entry> snapshotEntries = new ConcurrentHashMap<>();
+        Map<Path, Exception> failures = new ConcurrentHashMap<>();
+
+        // Only the files that changed since the snapshot was taken need to be parsed again. The photos of other shards
+        // are only parsed up to their date. They are kept out of the snapshot, where they would pass for complete, and
+        // are parsed again on every load.
+        List<Path> filesToParse = new ArrayList<>();
+        photoMetadataFiles.forEach((path, stamp) -> {
+            String fileName = path.getFileName().toString();
+            MetadataSnapshot.Entry snapshotEntry = snapshot.getPhotoEntries().get(fileName);
+            if (snapshotEntry != null && snapshotEntry.getStamp().equals(stamp) && shard.contains(photoMetadataId(fileName))) {
+                photoMetaById.put(snapshotEntry.getPhotoMeta().getId(), snapshotEntry.getPhotoMeta());
+                snapshotEntries.put(fileName, snapshotEntry);
+            } else {
+                filesToParse.add(path);
+            }
+        });
+        int filesReused = snapshotEntries.size();
+        FILES_PARSED.expect(filesToParse.size());
+
+        Consumer<Path> loader = path -> {
+            try {
+                boolean complete = shard.contains(photoMetadataId(path.getFileName().toString()));
+                PhotoMeta photoMeta = parsePhotoMetadata(path, archive, complete, photoMetaReader);
+                if (photoMeta != null) {
+                    photoMetaById.put(photoMeta.getId(), photoMeta);
+                    FileStamp stamp = photoMetadataFiles.get(path);
+                    if (stamp != null) {
+                        if (complete) {
+                            snapshotEntries.put(path.getFileName().toString(), new MetadataSnapshot.Entry(stamp, photoMeta));
+                        }
+                        BYTES_PARSED.add(stamp.getSize());
+                    }
+                }
+            } catch (RuntimeException e) {
+                PARSE_ERRORS.increment();
+                failures.put(path, e);
+            }
+        };
+
+        if (workers <= 1) {
+            filesToParse.forEach(loader);
+        } else {
+            runBounded(filesToParse, loader, workers);
+        }
+
+        PhotoMetadataLoadResult result = new PhotoMetadataLoadResult(photoMetaById, failures, filesToParse.size(), filesReused, Duration.ofNanos(System.nanoTime() - start));
+        LOG.info("Loaded Photo metadata from {} using {} worker(s): {}", metadataPath, Math.max(1, workers), result);
+
+        // The Albums are only refreshed here as well, so the snapshot is written from a single place
+        MetadataSnapshot refreshed = refreshAlbums(snapshot, archive);
+        if (!filesToParse.isEmpty() || snapshotEntries.size() != snapshot.getPhotoEntries().size() || refreshed != snapshot) {
+            writeSnapshot(refreshed.withPhotoEntries(new TreeMap<>(snapshotEntries)));
+        }
+        return result;
+    }
+
+    private Map<Path, FileStamp> listPhotoMetadataFiles(MetadataArchive archive) {
+        Map<Path, FileStamp> photoMetadataFiles = new LinkedHashMap<>();
+        for (DirectoryEntry entry : photoMetadataEntries(archive).values()) {
+            photoMetadataFiles.put(entry.getPath(), entry.getSize() == DirectoryEntry.UNKNOWN ? null : new FileStamp(entry.getSize(), entry.getLastModified()));
+        }
+        return photoMetadataFiles;
+    }
+
+    /**
+     * @return The photo metadata files in the metadata folder, by photo id
+     */
+    public Map<String, DirectoryEntry> photoMetadataEntries() {
+        MetadataArchive archive = archive();
+        return photoMetadataEntries(archive);
+    }
+
+    /**
+     * Of the photos of other shards, we only need the dates of those sharing an Album with our own photos, as the
+     * earliest photo determines the folder of the Album.
+     * @return Whether this shard needs the metadata of a photo
+     */
+    private Predicate<String> neededPhotos(MetadataArchive archive) {
+        if (shard.isAll()) {
+            return photoId -> true;
+        }
+        Set<String> albumNeighbours = albumNeighbours(loadAlbums(archive));
+        return photoId -> shard.contains(photoId) || albumNeighbours.contains(photoId);
+    }
+
+    /**
+     * @return The photos in the Albums which hold at least one photo of this shard
+     */
+    private Set<String> albumNeighbours(List<Album> albums) {
+        Set<String> albumNeighbours = new HashSet<>();
+        for (Album album : albums) {
+            for (String photoId : album.getPhotoIds()) {
+                if (shard.contains(photoId)) {
+                    albumNeighbours.addAll(album.getPhotoIds());
+                    break;
+                }
+            }
+        }
+        return albumNeighbours;
+    }
+
+    private Map<String, DirectoryEntry> photoMetadataEntries(MetadataArchive archive) {
+        Map<String, DirectoryEntry> entriesById = new LinkedHashMap<>();
+        for (DirectoryEntry entry : listMetadata(archive)) {
+            String photoId = photoMetadataId(entry.getFileName());
+            if (photoId != null) {
+                entriesById.put(photoId, entry);
+            }
+        }
+        return entriesById;
+    }
+
+    /**
+     * Parses the metadata of the given photos on the metadata workers, and hands every photo to the consumer as soon as
+     * it is parsed. The photos are taken up in the given order, but with several workers they are handed over in the
+     * order in which their parsing completes, which may differ. Photos without (valid) metadata are handed over as
+     * null. Parsing stops as soon as the consumer returns false. Should the consumer fail, on whichever thread, parsing
+     * stops as well and the failure is rethrown once the workers are done.
+     * Contrary to {@link #loadPhotoMetadata()}, the parsed metadata is not retained, nor taken from the snapshot.
+     */
+    public void streamPhotoMetadata(List<String> photoIds, BiPredicate<String, PhotoMeta> consumer) {
+        MetadataArchive archive = archive();
+        Map<String, DirectoryEntry> entries = photoMetadataEntries(archive);
+        PhotoMetaReader photoMetaReader = new PhotoMetaReader(objectMapper);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<RuntimeException> consumerFailure = new AtomicReference<>();
+        FILES_PARSED.expect(photoIds.size());
+        Consumer<String> loader = photoId -> {
+            PhotoMeta photoMeta = null;
+            DirectoryEntry entry = entries.get(photoId);
+            if (entry == null) {
+                LOG.warn("No metadata entry for {} found in {}", photoId, metadataPath);
+            } else {
+                try {
+                    photoMeta = parsePhotoMetadata(entry.getPath(), archive, shard.contains(photoId), photoMetaReader);
+                    if (entry.getSize() != DirectoryEntry.UNKNOWN) {
+                        BYTES_PARSED.add(entry.getSize());
+                    }
+                } catch (RuntimeException e) {
+                    PARSE_ERRORS.increment();
+                    LOG.error("Failed to parse Photo metadata from {}", entry.getPath(), e);
+                }
+            }
+            try {
+                if (!consumer.test(photoId, photoMeta)) {
+                    stopped.set(true);
+                }
+            } catch (RuntimeException e) {
+                consumerFailure.compareAndSet(null, e);
+                stopped.set(true);
+            }
+        };
+        runBounded(photoIds, loader, Math.max(1, workers), stopped::get);
+        if (consumerFailure.get() != null) {
+            throw consumerFailure.get();
+        }
+    }
+
+    private <T> void runBounded(List<T> items, Consumer<T> loader, int workers) {
+        runBounded(items, loader, workers, () -> false);
+    }
+
+    private <T> void runBounded(List<T> items, Consumer<T> loader, int workers, BooleanSupplier stopped) {
+        // The bounded queue, combined with the CallerRunsPolicy, prevents us from queueing a task per file up front
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 4), new ThreadPoolExecutor.CallerRunsPolicy());
         try {
-            return Files.list(metadataPath)
-                    .filter(this::isPhotoMetadataFile)
-                    .map(this::parsePhotoMetadata)
-                    .collect(Collectors.toMap(PhotoMeta::getId, Function.identity()));
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to list "+metadataPath, e);
+            for (T item : items) {
+                if (stopped.getAsBoolean()) {
+                    break;
+                }
+                executor.execute(() -> loader.accept(item));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading Photo metadata from "+metadataPath, e);
         }
     }
 
     public Set<String> getPhotoMetaIds() {
-        try {
-            return Files.list(metadataPath)
-                    .filter(this::isPhotoMetadataFile)
-                    .map(path -> {
-                        Matcher matcher = PHOTO_METADATA_PATTERN.matcher(path.getFileName().toString());
-                        matcher.matches();
-                        return matcher.group(1);
-                    })
-                    .collect(Collectors.toSet());
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to list "+metadataPath, e);
+        return new HashSet<>(photoMetadataEntries().keySet());
+    }
+
+    /**
+     * @return The numeric ids of the photos we have metadata for
+     */
+    public LongSet getPhotoMetaIdSet() {
+        MetadataArchive archive = archive();
+        List<DirectoryEntry> entries = listMetadata(archive);
+        LongSet photoMetaIds = new LongSet(entries.size());
+        for (DirectoryEntry entry : entries) {
+            String photoId = photoMetadataId(entry.getFileName());
+            if (photoId != null) {
+                photoMetaIds.add(Long.parseLong(photoId));
+            }
         }
+        return photoMetaIds;
     }
 
     public PhotoMeta getMetadata(String photoId) {
-        Path photoMetaPath = metadataPath.resolve("photo_" + photoId + ".json");
-        return parsePhotoMetadata(photoMetaPath);
+        String fileName = PHOTO_METADATA_PREFIX + photoId + PHOTO_METADATA_SUFFIX;
+        MetadataArchive archive = archive();
+        Path photoMetaPath = archive == null ? metadataPath.resolve(fileName) : archive.find(fileName);
+        if (photoMetaPath == null) {
+            LOG.warn("No metadata entry for {} found in {}", photoId, metadataPath);
+            return null;
+        }
+        return parsePhotoMetadata(photoMetaPath, archive, true, new PhotoMetaReader(objectMapper));
     }
 
     public List<Album> loadAlbums() {
+        MetadataArchive archive = archive();
+        return loadAlbums(archive);
+    }
+
+    /**
+     * Takes the Albums from the snapshot if they did not change. The snapshot is not refreshed here, but along with the
+     * photo metadata.
+     */
+    private List<Album> loadAlbums(MetadataArchive archive) {
+        Path albumsPath = albumsPath(archive);
+        if (albumsPath == null) {
+            throw new RuntimeException("No Albums found in "+metadataPath);
+        }
+        if (snapshotPath == null) {
+            return parseAlbums(albumsPath, archive);
+        }
+
+        MetadataSnapshot snapshot = readAlbumsSnapshot();
+        FileStamp albumsStamp = albumsStamp(albumsPath, archive);
+        if (albumsStamp == null) {
+            throw new RuntimeException("No Albums found at "+albumsPath);
+        }
+        return albumsStamp.equals(snapshot.getAlbumsStamp()) ? snapshot.getAlbums() : parseAlbums(albumsPath, archive);
+    }
+
+    /**
+     * @return The snapshot with the current Albums, or the same snapshot if they did not change or are missing
+     */
+    private MetadataSnapshot refreshAlbums(MetadataSnapshot snapshot, MetadataArchive archive) {
+        if (snapshotPath == null) {
+            return snapshot;
+        }
+        Path albumsPath = albumsPath(archive);
+        FileStamp albumsStamp = albumsPath == null ? null : albumsStamp(albumsPath, archive);
+        if (albumsStamp == null || albumsStamp.equals(snapshot.getAlbumsStamp())) {
+            return snapshot;
+        }
+        return snapshot.withAlbums(albumsStamp, parseAlbums(albumsPath, archive));
+    }
+
+    private Path albumsPath(MetadataArchive archive) {
+        return archive == null ? metadataPath.resolve("albums.json") : archive.find("albums.json");
+    }
+
+    private FileStamp albumsStamp(Path albumsPath, MetadataArchive archive) {
+        return listMetadata(archive).stream()
+                .filter(entry -> entry.getPath().equals(albumsPath))
+                .map(entry -> new FileStamp(entry.getSize(), entry.getLastModified()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private List<Album> parseAlbums(Path albumsPath, MetadataArchive archive) {
         try {
-            return objectMapper.readValue(metadataPath.resolve("albums.json").toFile(), Albums.class).getAlbums();
+            if (archive == null) {
+                return objectMapper.readValue(albumsPath.toFile(), Albums.class).getAlbums();
+            }
+            try (InputStream albumsJson = archive.read(albumsPath)) {
+                return objectMapper.readValue(albumsJson, Albums.class).getAlbums();
+            }
         } catch (IOException e) {
             throw new RuntimeException("Failed to parse Albums", e);
         }
     }
 
-    private boolean isPhotoMetadataFile(Path path) {
-        String fileName = path.getFileName().toString();
-        return PHOTO_METADATA_PATTERN.matcher(fileName).matches();
-        // return fileName.startsWith("photo_") && fileName.endsWith(".json");
+    /**
+     * The archive is opened once, and kept open for the life of the service, so its central directory is only read once.
+     * @return The Flickr metadata archive, if the metadata was not extracted but configured as the ZIP file itself
+     */
+    private MetadataArchive archive() {
+        MetadataArchive openArchive = archive;
+        if (openArchive == null && Files.isRegularFile(metadataPath)) {
+            synchronized (this) {
+                if (archive == null) {
+                    archive = MetadataArchive.open(metadataPath);
+                }
+                openArchive = archive;
+            }
+        }
+        return openArchive;
+    }
+
+    /**
+     * Closes the metadata archive, if it was opened. It is opened again when needed.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (archive != null) {
+            archive.close();
+            archive = null;
+        }
+    }
+
+    private List<DirectoryEntry> listMetadata(MetadataArchive archive) {
+        if (archive != null) {
+            return archive.entries();
+        }
+        // Without a snapshot, we don't need the attributes, so we avoid the stat
+        return snapshotPath == null ? directoryIndex.listNames(metadataPath) : directoryIndex.list(metadataPath);
+    }
+
+    private MetadataSnapshot readSnapshot(PhotoMetaReader photoMetaReader) {
+        if (snapshotPath == null) {
+            return MetadataSnapshot.empty();
+        }
+        try {
+            Path snapshotVersion = MetadataSnapshot.latestVersion(snapshotPath);
+            if (snapshotVersion == null) {
+                return MetadataSnapshot.empty();
+            }
+            long start = System.nanoTime();
+            MetadataSnapshot snapshot = MetadataSnapshot.read(snapshotVersion, photoMetaReader);
+            LOG.info("Read metadata snapshot {} with {} photos in {} ms", snapshotVersion, snapshot.getPhotoEntries().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable metadata snapshot {}", snapshotPath, e);
+            return MetadataSnapshot.empty();
+        }
     }
 
-    private PhotoMeta parsePhotoMetadata(Path photoMetadataPath) {
+    private MetadataSnapshot readAlbumsSnapshot() {
         try {
+            Path snapshotVersion = MetadataSnapshot.latestVersion(snapshotPath);
+            return snapshotVersion == null ? MetadataSnapshot.empty() : MetadataSnapshot.readAlbums(snapshotVersion);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable metadata snapshot {}", snapshotPath, e);
+            return MetadataSnapshot.empty();
+        }
+    }
+
+    private void writeSnapshot(MetadataSnapshot snapshot) {
+        if (snapshotPath == null) {
+            return;
+        }
+        try {
+            Path snapshotVersion = snapshot.write(snapshotPath);
+            LOG.info("Wrote metadata snapshot {} with {} photos", snapshotVersion, snapshot.getPhotoEntries().size());
+        } catch (IOException e) {
+            LOG.warn("Failed to write metadata snapshot {}", snapshotPath, e);
+        }
+    }
+
+    /**
+     * @return The photo id for a photo_&lt;id&gt;.json filename, or null if it is not a photo metadata file
+     */
+    static String photoMetadataId(String fileName) {
+        int idEnd = fileName.length() - PHOTO_METADATA_SUFFIX.length();
+        if (idEnd <= PHOTO_METADATA_PREFIX.length() || !fileName.startsWith(PHOTO_METADATA_PREFIX) || !fileName.endsWith(PHOTO_METADATA_SUFFIX)) {
+            return null;
+        }
+        for (int i = PHOTO_METADATA_PREFIX.length(); i < idEnd; i++) {
+            char c = fileName.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        return fileName.substring(PHOTO_METADATA_PREFIX.length(), idEnd);
+    }
+
+    /**
+     * @param complete Whether all metadata is needed, rather than only the date taken
+     */
+    private PhotoMeta parsePhotoMetadata(Path photoMetadataPath, MetadataArchive archive, boolean complete, PhotoMetaReader photoMetaReader) {
+        long start = System.nanoTime();
+        try {
+            if (archive != null) {
+                try (InputStream photoMetadataJson = archive.read(photoMetadataPath)) {
+                    if (photoMetadataJson == null) {
+                        LOG.warn("No metadata entry found at {}", photoMetadataPath);
+                        return null;
+                    }
+                    return complete ? photoMetaReader.read(photoMetadataJson) : photoMetaReader.readDateTaken(photoMetadataJson);
+                }
+            }
             if (Files.exists(photoMetadataPath)) {
-                PhotoMeta photoMeta = photoMetaReader.readValue(photoMetadataPath.toFile());
+                PhotoMeta photoMeta = complete ? photoMetaReader.read(photoMetadataPath) : photoMetaReader.readDateTaken(photoMetadataPath);
                 // LOG.debug(photoMetadataPath+" : OK");
                 return photoMeta;
             } else {
@@ -94,6 +530,9 @@ public class MetadataService {
             }
         } catch (IOException e) {
             throw new RuntimeException("Failed to parse Photo metadata from "+photoMetadataPath, e);
+        } finally {
+            FILES_PARSED.increment();
+            PARSE_TIME.recordSince(start);
         }
     }
 }
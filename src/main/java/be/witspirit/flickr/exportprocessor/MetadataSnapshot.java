@@ -0,0 +1,332 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import be.witspirit.flickr.exportprocessor.json.Tag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Compact binary copy of the parsed metadata, so subsequent runs do not have to parse all JSON files again.
+ * Every entry retains the size and modification time of the file it was parsed from, which allows to only parse the
+ * files that changed since the snapshot was taken.
+ * Every write creates a new version next to the configured path (e.g. Metadata.snapshot.3), rather than replacing the
+ * snapshot. The previous version may still be mapped, and on Windows, a mapped file can't be replaced or deleted.
+ * Older versions are deleted once that succeeds.
+ */
+public class MetadataSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataSnapshot.class);
+
+    private static final int MAGIC = 0x464D5353; // FMSS
+    private static final int VERSION = 1;
+
+    private final FileStamp albumsStamp;
+    private final List<Album> albums;
+    private final Map<String, Entry> photoEntries; // By metadata file name
+
+    public MetadataSnapshot(FileStamp albumsStamp, List<Album> albums, Map<String, Entry> photoEntries) {
+        this.albumsStamp = albumsStamp;
+        this.albums = albums;
+        this.photoEntries = photoEntries;
+    }
+
+    public static MetadataSnapshot empty() {
+        return new MetadataSnapshot(null, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    public FileStamp getAlbumsStamp() {
+        return albumsStamp;
+    }
+
+    public List<Album> getAlbums() {
+        return albums;
+    }
+
+    public Map<String, Entry> getPhotoEntries() {
+        return photoEntries;
+    }
+
+    public MetadataSnapshot withAlbums(FileStamp albumsStamp, List<Album> albums) {
+        return new MetadataSnapshot(albumsStamp, albums, photoEntries);
+    }
+
+    public MetadataSnapshot withPhotoEntries(Map<String, Entry> photoEntries) {
+        return new MetadataSnapshot(albumsStamp, albums, photoEntries);
+    }
+
+    /**
+     * @return The latest version of the snapshot, or null if none was written yet
+     */
+    public static Path latestVersion(Path snapshotPath) throws IOException {
+        List<Path> versions = versions(snapshotPath);
+        return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+    }
+
+    /**
+     * @return The versions of the snapshot, from old to new. A snapshot at the configured path itself, as written by
+     * earlier releases, is the oldest.
+     */
+    private static List<Path> versions(Path snapshotPath) throws IOException {
+        String versionPrefix = snapshotPath.getFileName() + ".";
+        Map<Long, Path> versions = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(snapshotPath.toAbsolutePath().getParent(),
+                path -> path.getFileName().toString().startsWith(versionPrefix))) {
+            for (Path path : paths) {
+                String version = path.getFileName().toString().substring(versionPrefix.length());
+                if (!version.isEmpty() && version.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    versions.put(Long.parseLong(version), path);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+        if (Files.isRegularFile(snapshotPath)) {
+            versions.put(0L, snapshotPath);
+        }
+        return new ArrayList<>(versions.values());
+    }
+
+    public static MetadataSnapshot read(Path snapshotPath, PhotoMetaReader photoMetaReader) throws IOException {
+        return read(snapshotPath, photoMetaReader, true);
+    }
+
+    /**
+     * Reads only the Albums, which precede the photos. As the snapshot is mapped, the photos are not even loaded.
+     * @return The snapshot without its photo entries
+     */
+    public static MetadataSnapshot readAlbums(Path snapshotPath) throws IOException {
+        return read(snapshotPath, null, false);
+    }
+
+    private static MetadataSnapshot read(Path snapshotPath, PhotoMetaReader photoMetaReader, boolean withPhotos) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot "+snapshotPath+" exceeds the maximum size of a single mapping");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(snapshotPath+" is not a compatible metadata snapshot");
+            }
+
+            FileStamp albumsStamp = buffer.get() == 0 ? null : new FileStamp(buffer.getLong(), buffer.getLong());
+            int albumCount = buffer.getInt();
+            List<Album> albums = new ArrayList<>(albumCount);
+            for (int i = 0; i < albumCount; i++) {
+                String id = readString(buffer);
+                String title = readString(buffer);
+                String description = readString(buffer);
+                String photoCount = readString(buffer);
+                String created = readString(buffer);
+                String lastUpdated = readString(buffer);
+                albums.add(new Album(id, title, description, photoCount, created, lastUpdated, readStrings(buffer)));
+            }
+            if (!withPhotos) {
+                return new MetadataSnapshot(albumsStamp, albums, Collections.emptyMap());
+            }
+
+            int photoCount = buffer.getInt();
+            Map<String, Entry> photoEntries = new LinkedHashMap<>(photoCount * 2);
+            for (int i = 0; i < photoCount; i++) {
+                String fileName = readString(buffer);
+                FileStamp stamp = new FileStamp(buffer.getLong(), buffer.getLong());
+                String id = readString(buffer);
+                String name = readString(buffer);
+                String description = readString(buffer);
+                String dateTaken = readString(buffer);
+                String original = readString(buffer);
+                List<String> tags = readStrings(buffer);
+                byte[] rawExif = readBytes(buffer);
+                PhotoMeta photoMeta = photoMetaReader.create(id, name, description, dateTaken, original, tags, rawExif);
+                photoEntries.put(fileName, new Entry(stamp, photoMeta));
+            }
+            return new MetadataSnapshot(albumsStamp, albums, photoEntries);
+        }
+    }
+
+    /**
+     * Writes the snapshot as a new version, and deletes the older versions which are no longer in use.
+     * @return The version written
+     */
+    public Path write(Path snapshotPath) throws IOException {
+        List<Path> versions = versions(snapshotPath);
+        long version = versions.isEmpty() ? 1 : version(snapshotPath, versions.get(versions.size() - 1)) + 1;
+        Path versionPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + "." + version);
+        Path tempPath = snapshotPath.resolveSibling(versionPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            if (albumsStamp == null) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(1);
+                out.writeLong(albumsStamp.getSize());
+                out.writeLong(albumsStamp.getLastModified());
+            }
+            out.writeInt(albums.size());
+            for (Album album : albums) {
+                writeString(out, album.getId());
+                writeString(out, album.getTitle());
+                writeString(out, album.getDescription());
+                writeString(out, album.getPhotoCount());
+                writeString(out, album.getCreated());
+                writeString(out, album.getLastUpdated());
+                writeStrings(out, album.getPhotoIds());
+            }
+
+            out.writeInt(photoEntries.size());
+            for (Map.Entry<String, Entry> photoEntry : photoEntries.entrySet()) {
+                FileStamp stamp = photoEntry.getValue().getStamp();
+                PhotoMeta photoMeta = photoEntry.getValue().getPhotoMeta();
+                writeString(out, photoEntry.getKey());
+                out.writeLong(stamp.getSize());
+                out.writeLong(stamp.getLastModified());
+                writeString(out, photoMeta.getId());
+                writeString(out, photoMeta.getName());
+                writeString(out, photoMeta.getDescription());
+                writeString(out, photoMeta.getDateTaken());
+                writeString(out, photoMeta.getOriginal());
+                List<String> tags = new ArrayList<>(photoMeta.getTags().size());
+                for (Tag tag : photoMeta.getTags()) {
+                    tags.add(tag.getTag());
+                }
+                writeStrings(out, tags);
+                writeBytes(out, photoMeta.getRawExif());
+            }
+        }
+        Files.move(tempPath, versionPath, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path olderVersion : versions) {
+            try {
+                Files.deleteIfExists(olderVersion);
+            } catch (IOException e) {
+                // On Windows, while it is still mapped. It is deleted by a next write.
+                LOG.debug("Could not delete metadata snapshot {} yet", olderVersion, e);
+            }
+        }
+        return versionPath;
+    }
+
+    private static long version(Path snapshotPath, Path versionPath) {
+        return versionPath.equals(snapshotPath) ? 0 : Long.parseLong(versionPath.getFileName().toString().substring(snapshotPath.getFileName().toString().length() + 1));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = readBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buffer));
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    public static class Entry {
+        private final FileStamp stamp;
+        private final PhotoMeta photoMeta;
+
+        public Entry(FileStamp stamp, PhotoMeta photoMeta) {
+            this.stamp = stamp;
+            this.photoMeta = photoMeta;
+        }
+
+        public FileStamp getStamp() {
+            return stamp;
+        }
+
+        public PhotoMeta getPhotoMeta() {
+            return photoMeta;
+        }
+    }
+
+    /**
+     * Size and modification time of a file, which we use to determine whether a file changed.
+     */
+    public static class FileStamp {
+        private final long size;
+        private final long lastModified;
+
+        public FileStamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FileStamp fileStamp = (FileStamp) o;
+            return size == fileStamp.size && lastModified == fileStamp.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModified);
+        }
+    }
+}
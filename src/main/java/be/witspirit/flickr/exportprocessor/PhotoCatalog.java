@@ -0,0 +1,238 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.index.StringPool;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.Tag;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+/**
+ * Column oriented catalog of the photo metadata, holding a few arrays instead of a handful of objects per photo.
+ * Rows are ordered by photo id. Strings are deduplicated in a pool and the tags of a photo are a range of TagDictionary
+ * ids. A PhotoDescriptor is only materialized when a photo is actually visited, see {@link #photos(int[], IntFunction)}.
+ */
+public class PhotoCatalog {
+    static final long UNKNOWN_DATE = Long.MIN_VALUE;
+
+    private final long[] ids;
+    private final long[] datesTaken; // The local date time, encoded as epoch seconds at UTC
+    private final int[] nameRefs;
+    private final int[] descriptionRefs;
+    private final int[] flickrFilenameRefs;
+    private final int[] tagOffsets; // The tags of row r are tagIds[tagOffsets[r]] up to tagIds[tagOffsets[r + 1]]
+    private final int[] tagIds;
+    private final StringPool strings;
+
+    private PhotoCatalog(long[] ids, long[] datesTaken, int[] nameRefs, int[] descriptionRefs, int[] flickrFilenameRefs, int[] tagOffsets, int[] tagIds, StringPool strings) {
+        this.ids = ids;
+        this.datesTaken = datesTaken;
+        this.nameRefs = nameRefs;
+        this.descriptionRefs = descriptionRefs;
+        this.flickrFilenameRefs = flickrFilenameRefs;
+        this.tagOffsets = tagOffsets;
+        this.tagIds = tagIds;
+        this.strings = strings;
+    }
+
+    public static PhotoCatalog of(Collection<PhotoMeta> photoMetas) {
+        Builder builder = new Builder(photoMetas.size());
+        photoMetas.forEach(builder::add);
+        return builder.build();
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return The row of the photo, or a negative value if the catalog does not contain the photo
+     */
+    public int rowOf(long photoId) {
+        int row = Arrays.binarySearch(ids, photoId);
+        return row >= 0 ? row : -1;
+    }
+
+    public long id(int row) {
+        return ids[row];
+    }
+
+    public LocalDateTime dateTaken(int row) {
+        return datesTaken[row] == UNKNOWN_DATE ? null : LocalDateTime.ofEpochSecond(datesTaken[row], 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * @return The date taken as epoch seconds at UTC, or UNKNOWN_DATE, so dates can be compared without materializing them
+     */
+    long epochSecondTaken(int row) {
+        return datesTaken[row];
+    }
+
+    public String name(int row) {
+        return strings.get(nameRefs[row]);
+    }
+
+    public String description(int row) {
+        return strings.get(descriptionRefs[row]);
+    }
+
+    public String flickrFilename(int row) {
+        return strings.get(flickrFilenameRefs[row]);
+    }
+
+    public int[] tagIds(int row) {
+        return Arrays.copyOfRange(tagIds, tagOffsets[row], tagOffsets[row + 1]);
+    }
+
+    public PhotoDescriptor photo(int row) {
+        return photo(row, name(row));
+    }
+
+    private PhotoDescriptor photo(int row, String name) {
+        return PhotoDescriptor.builder()
+                .id(Long.toString(ids[row]))
+                .name(name)
+                .description(description(row))
+                .dateTaken(dateTaken(row))
+                .flickrFilename(flickrFilename(row))
+                .tagIds(tagIds(row))
+                .build();
+    }
+
+    /**
+     * @param rows The rows of the photos, in the order they should be listed
+     * @param missingName Provides a name for the photo at the given position in the list, in case it has no name
+     * @return A read only view on the photos, which materializes a PhotoDescriptor each time a photo is requested
+     */
+    public List<PhotoDescriptor> photos(int[] rows, IntFunction<String> missingName) {
+        return new PhotoView(rows, missingName);
+    }
+
+    private class PhotoView extends AbstractList<PhotoDescriptor> implements RandomAccess {
+        private final int[] rows;
+        private final IntFunction<String> missingName;
+
+        private PhotoView(int[] rows, IntFunction<String> missingName) {
+            this.rows = rows;
+            this.missingName = missingName;
+        }
+
+        @Override
+        public PhotoDescriptor get(int index) {
+            int row = rows[index];
+            String name = name(row);
+            return photo(row, StringUtils.hasText(name) ? name : missingName.apply(index));
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+
+    /**
+     * Collects the photos of a catalog. Not thread safe.
+     */
+    public static class Builder {
+        private final StringPool strings = new StringPool();
+        private long[] ids;
+        private long[] datesTaken;
+        private int[] nameRefs;
+        private int[] descriptionRefs;
+        private int[] flickrFilenameRefs;
+        private int[] tagOffsets;
+        private int[] tagIds = new int[1024];
+        private int size;
+        private int tagCount;
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            ids = new long[capacity];
+            datesTaken = new long[capacity];
+            nameRefs = new int[capacity];
+            descriptionRefs = new int[capacity];
+            flickrFilenameRefs = new int[capacity];
+            tagOffsets = new int[capacity + 1];
+        }
+
+        public Builder add(PhotoMeta photoMeta) {
+            if (size == ids.length) {
+                grow(size * 2);
+            }
+            ids[size] = Long.parseLong(photoMeta.getId());
+            datesTaken[size] = photoMeta.getDateTaken() == null ? UNKNOWN_DATE : StructuringService.parseDateTaken(photoMeta.getDateTaken()).toEpochSecond(ZoneOffset.UTC);
+            nameRefs[size] = strings.add(photoMeta.getName());
+            descriptionRefs[size] = strings.add(photoMeta.getDescription());
+            flickrFilenameRefs[size] = strings.add(photoMeta.getOriginal());
+
+            List<String> tags = new ArrayList<>(photoMeta.getTags().size());
+            for (Tag tag : photoMeta.getTags()) {
+                tags.add(tag.getTag());
+            }
+            int[] photoTagIds = TagDictionary.global().encode(tags);
+            if (tagCount + photoTagIds.length > tagIds.length) {
+                tagIds = Arrays.copyOf(tagIds, Math.max(tagIds.length * 2, tagCount + photoTagIds.length));
+            }
+            System.arraycopy(photoTagIds, 0, tagIds, tagCount, photoTagIds.length);
+            tagCount += photoTagIds.length;
+            tagOffsets[size + 1] = tagCount;
+            size++;
+            return this;
+        }
+
+        private void grow(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            datesTaken = Arrays.copyOf(datesTaken, capacity);
+            nameRefs = Arrays.copyOf(nameRefs, capacity);
+            descriptionRefs = Arrays.copyOf(descriptionRefs, capacity);
+            flickrFilenameRefs = Arrays.copyOf(flickrFilenameRefs, capacity);
+            tagOffsets = Arrays.copyOf(tagOffsets, capacity + 1);
+        }
+
+        public PhotoCatalog build() {
+            // Order the rows by id, so a photo can be found with a binary search
+            long[] sortedIds = Arrays.copyOf(ids, size);
+            Arrays.sort(sortedIds);
+            int[] rowOf = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && sortedIds[i] == sortedIds[i - 1]) {
+                    throw new IllegalStateException("Duplicate metadata for photo " + sortedIds[i]);
+                }
+                rowOf[i] = Arrays.binarySearch(sortedIds, ids[i]);
+            }
+
+            long[] rowDatesTaken = new long[size];
+            int[] rowNameRefs = new int[size];
+            int[] rowDescriptionRefs = new int[size];
+            int[] rowFlickrFilenameRefs = new int[size];
+            int[] rowTagCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                int row = rowOf[i];
+                rowDatesTaken[row] = datesTaken[i];
+                rowNameRefs[row] = nameRefs[i];
+                rowDescriptionRefs[row] = descriptionRefs[i];
+                rowFlickrFilenameRefs[row] = flickrFilenameRefs[i];
+                rowTagCounts[row] = tagOffsets[i + 1] - tagOffsets[i];
+            }
+            int[] rowTagOffsets = new int[size + 1];
+            for (int row = 0; row < size; row++) {
+                rowTagOffsets[row + 1] = rowTagOffsets[row] + rowTagCounts[row];
+            }
+            int[] rowTagIds = new int[tagCount];
+            for (int i = 0; i < size; i++) {
+                int row = rowOf[i];
+                System.arraycopy(tagIds, tagOffsets[i], rowTagIds, rowTagOffsets[row], rowTagCounts[row]);
+            }
+
+            return new PhotoCatalog(sortedIds, rowDatesTaken, rowNameRefs, rowDescriptionRefs, rowFlickrFilenameRefs, rowTagOffsets, rowTagIds, strings.freeze());
+        }
+    }
+}
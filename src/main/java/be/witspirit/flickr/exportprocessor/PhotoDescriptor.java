@@ -1,33 +1,30 @@
 package be.witspirit.flickr.exportprocessor;
 
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.Collections;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 public class PhotoDescriptor {
-    private static final Set<String> IGNORED_TAGS = Set.of("flickrandroidapp:filter=none", "iphoneography", "instagram app", "uploaded:by=instagram", "Normal", "square", "square format");
-
     private final String id;
     private final String name;
     private final String description;
     private final LocalDateTime dateTaken;
-    private final SortedSet<String> tags = new TreeSet<>();
+    private final int[] tagIds; // Ids in the TagDictionary, ordered by tag
     private final String flickrFilename;
 
     private final String fileExtension;
     private final String destinationFileName;
+    private volatile SortedSet<String> tags; // Decoded from the tagIds on first use
 
-    private PhotoDescriptor(String id, String name, String description, LocalDateTime dateTaken, String flickrFilename, Set<String> tags) {
+    private PhotoDescriptor(String id, String name, String description, LocalDateTime dateTaken, String flickrFilename, int[] tagIds) {
         this.id = id;
         this.name = name;
         this.description = description;
         this.dateTaken = dateTaken;
-        if (tags != null) {
-            this.tags.addAll(tags);
-        }
+        this.tagIds = tagIds;
         this.flickrFilename = flickrFilename;
         this.fileExtension = extractFileExtension(flickrFilename);
         this.destinationFileName = deriveDestinationFileName();
@@ -39,26 +36,21 @@ public class PhotoDescriptor {
 
 
     private String deriveDestinationFileName() {
-        String tagEncoding;
-        if (tags.isEmpty()) {
-            tagEncoding = "";
-        } else {
-            tagEncoding = "___#" +tags.stream().map(this::sanitizeTagForFilename).filter(Optional::isPresent).map(Optional::get).collect(Collectors.joining("#"));
-        }
         // Add original flickr id to ensure uniqueness. Experience has shown that we have duplicate names for distinct photos !
         // It's not very readable, but it at least properly disambiguates in a potentially sensible way. Put it after the name, to not disrupt the more natural name ordering.
-        return FileNameSanitizer.text(name)+ "+"+id + tagEncoding + fileExtension;
-    }
-
-    private Optional<String> sanitizeTagForFilename(String input) {
-        if (IGNORED_TAGS.contains(input)) {
-            return Optional.empty();
+        StringBuilder fileName = new StringBuilder(128).append(FileNameSanitizer.text(name)).append('+').append(id);
+        if (tagIds.length > 0) {
+            TagDictionary tagDictionary = TagDictionary.global();
+            fileName.append("___#");
+            String separator = "";
+            for (int tagId : tagIds) {
+                if (!tagDictionary.isIgnored(tagId)) {
+                    fileName.append(separator).append(tagDictionary.fileNameFragment(tagId));
+                    separator = "#";
+                }
+            }
         }
-        return Optional.of(input
-                .replaceAll(" ", "-")
-                .replaceAll("\\\\", "-")
-                .replaceAll("/", "-")
-        );
+        return fileName.append(fileExtension).toString();
     }
 
     public static PhotoDescriptorBuilder builder() {
@@ -85,21 +77,55 @@ public class PhotoDescriptor {
         return flickrFilename;
     }
 
+    /**
+     * @return The tags, which are only decoded on the first call, so photos whose tags are never asked for keep just their ids
+     */
     public SortedSet<String> getTags() {
-        return tags;
+        SortedSet<String> decodedTags = tags;
+        if (decodedTags == null) {
+            SortedSet<String> tagSet = new TreeSet<>();
+            for (int tagId : tagIds) {
+                tagSet.add(TagDictionary.global().tag(tagId));
+            }
+            decodedTags = Collections.unmodifiableSortedSet(tagSet);
+            tags = decodedTags;
+        }
+        return decodedTags;
+    }
+
+    /**
+     * @return The ids of the tags in the TagDictionary, ordered by tag
+     */
+    public int[] getTagIds() {
+        return tagIds;
     }
 
     public String getDestinationFileName() {
         return destinationFileName;
     }
 
+    /**
+     * A photo is identified by its Flickr id, regardless of the name it was given in a particular Album.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Objects.equals(id, ((PhotoDescriptor) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
     public static class PhotoDescriptorBuilder {
         private String id;
         private String name;
         private String description;
         private String flickrFilename;
         private LocalDateTime dateTaken;
-        private Set<String> tags;
+        private int[] tagIds;
 
         public PhotoDescriptorBuilder id(String id) {
             this.id = id;
@@ -127,12 +153,17 @@ public class PhotoDescriptor {
         }
 
         public PhotoDescriptorBuilder tags(Set<String> tags) {
-            this.tags = tags;
+            this.tagIds = TagDictionary.global().encode(tags);
+            return this;
+        }
+
+        public PhotoDescriptorBuilder tagIds(int[] tagIds) {
+            this.tagIds = tagIds;
             return this;
         }
 
         public PhotoDescriptor build() {
-            return new PhotoDescriptor(id, name, description, dateTaken, flickrFilename, tags);
+            return new PhotoDescriptor(id, name, description, dateTaken, flickrFilename, tagIds == null ? new int[0] : tagIds);
         }
     }
 }
@@ -0,0 +1,63 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+public class PhotoMetadataLoadResult {
+    private final Map<String, PhotoMeta> photoMetaById;
+    private final Map<Path, Exception> failures;
+    private final int filesProcessed;
+    private final int filesReused;
+    private final Duration duration;
+
+    public PhotoMetadataLoadResult(Map<String, PhotoMeta> photoMetaById, Map<Path, Exception> failures, int filesProcessed, int filesReused, Duration duration) {
+        this.photoMetaById = photoMetaById;
+        this.failures = failures;
+        this.filesProcessed = filesProcessed;
+        this.filesReused = filesReused;
+        this.duration = duration;
+    }
+
+    /**
+     * @return The parsed photo metadata. When sharded, this includes the photos of other shards which share an Album
+     * with a photo of this shard, but those are only parsed up to their date.
+     */
+    public Map<String, PhotoMeta> getPhotoMetaById() {
+        return photoMetaById;
+    }
+
+    /**
+     * @return The metadata files that could not be parsed, with the reason why
+     */
+    public Map<Path, Exception> getFailures() {
+        return failures;
+    }
+
+    public int getFilesProcessed() {
+        return filesProcessed;
+    }
+
+    /**
+     * @return The number of files which were unchanged since the snapshot and hence not parsed again
+     */
+    public int getFilesReused() {
+        return filesReused;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public double getFilesPerSecond() {
+        long millis = Math.max(1, duration.toMillis());
+        return filesProcessed * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files parsed in %d ms (%.1f files/s), %d reused from snapshot, %d failures", filesProcessed, duration.toMillis(), getFilesPerSecond(), filesReused, failures.size());
+    }
+}
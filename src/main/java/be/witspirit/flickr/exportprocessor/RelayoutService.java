@@ -0,0 +1,378 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.index.LongObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Brings an already processed destination in line with changed naming rules, without processing the export again.
+ * The destination tree is indexed once, and every file is recognized by the photo id in its name. Every folder is
+ * matched with the Album folder most of its photos go to under the current rules, or with the one of the same name on
+ * a tie, and is renamed as a whole when possible. Only the files whose path actually changes are renamed, folder by folder.
+ */
+@Service
+public class RelayoutService {
+    private static final Logger LOG = LoggerFactory.getLogger(RelayoutService.class);
+
+    // Marks a file which steps aside for another file taking its name
+    private static final String TEMP_SUFFIX = ".relayout";
+
+    private final StructuringService structuringService;
+    private final Path destinationPath;
+
+    public RelayoutService(StructuringService structuringService, @Value("${folder.destination}") String destinationFolder) {
+        this.structuringService = structuringService;
+        this.destinationPath = Path.of(destinationFolder);
+    }
+
+    /**
+     * Renames the files in the destination to their path in the given Album structure.
+     */
+    public RelayoutStats relayout(List<AlbumDescriptor> albumDescriptors) {
+        RelayoutStats stats = new RelayoutStats();
+        LongObjectMap<List<Path>> layout = layout(albumDescriptors);
+        Map<Path, List<Path>> filesByFolder = index();
+        Set<Path> occupied = new HashSet<>();
+        filesByFolder.values().forEach(occupied::addAll);
+
+        // Per source file, in folder order, the path it has to be renamed to
+        Map<Path, Path> renames = new LinkedHashMap<>();
+        Set<Path> claimed = new HashSet<>();
+        Set<Path> vacatedFolders = new TreeSet<>(Comparator.reverseOrder());
+        for (Map.Entry<Path, List<Path>> folder : filesByFolder.entrySet()) {
+            if (relayoutFolder(folder.getKey(), folder.getValue(), layout, filesByFolder.keySet(), occupied, claimed, renames, stats)) {
+                vacatedFolders.add(folder.getKey().getParent());
+            }
+        }
+        for (Path source : renames.keySet()) {
+            vacatedFolders.add(source.getParent());
+        }
+        renameFiles(renames, occupied, stats);
+        // Deepest first, so the parent of a deleted folder is considered after it
+        vacatedFolders.forEach(this::deleteIfEmpty);
+
+        stats.finished();
+        LOG.info("Relayout of {}: {}", destinationPath, stats);
+        return stats;
+    }
+
+    /**
+     * @return By photo id, the paths of the photo in all its Albums, named as in each Album, like the transfers do
+     */
+    private LongObjectMap<List<Path>> layout(List<AlbumDescriptor> albumDescriptors) {
+        Map<PhotoDescriptor, List<Path>> photos = structuringService.computePhotoDestinations(albumDescriptors);
+        LongObjectMap<List<Path>> layout = new LongObjectMap<>(photos.size());
+        photos.forEach((photo, destinations) -> layout.put(Long.parseLong(photo.getId()), destinations));
+        return layout;
+    }
+
+    /**
+     * @return The files in the destination, by folder
+     */
+    private Map<Path, List<Path>> index() {
+        Map<Path, List<Path>> filesByFolder = new TreeMap<>();
+        if (!Files.isDirectory(destinationPath)) {
+            return filesByFolder;
+        }
+        try {
+            Files.walkFileTree(destinationPath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        filesByFolder.computeIfAbsent(file.getParent(), folder -> new ArrayList<>()).add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index "+destinationPath, e);
+        }
+        return filesByFolder;
+    }
+
+    /**
+     * Determines the renames of the files in the folder, after renaming the folder itself when all its photos go to
+     * the same new folder.
+     * @return Whether the folder was renamed
+     */
+    private boolean relayoutFolder(Path folder, List<Path> files, LongObjectMap<List<Path>> layout, Set<Path> indexedFolders,
+                                   Set<Path> occupied, Set<Path> claimed, Map<Path, Path> renames, RelayoutStats stats) {
+        // Every recognized photo votes for the folders it goes to
+        Map<Path, List<Path>> photoDestinations = new LinkedHashMap<>();
+        Map<Path, Integer> votes = new TreeMap<>();
+        for (Path file : files) {
+            List<Path> destinations = destinations(file.getFileName().toString(), layout);
+            if (destinations == null) {
+                LOG.debug("{} is not recognized as a photo. Leaving it in place.", file);
+                stats.unmatched();
+            } else {
+                photoDestinations.put(file, destinations);
+                for (Path destination : destinations) {
+                    votes.merge(destination.getParent(), 1, Integer::sum);
+                }
+            }
+        }
+        if (photoDestinations.isEmpty()) {
+            return false;
+        }
+
+        Path targetFolder = targetFolder(folder, votes);
+        if (targetFolder == null) {
+            LOG.warn("Can't tell which Album {} holds. Leaving its files in place.", folder);
+            photoDestinations.forEach((file, destinations) -> stats.unmatched());
+            return false;
+        }
+
+        Map<Path, Path> folderRenames = new LinkedHashMap<>();
+        for (Map.Entry<Path, List<Path>> photo : photoDestinations.entrySet()) {
+            Path target = null;
+            for (Path destination : photo.getValue()) {
+                if (destination.getParent().equals(targetFolder)) {
+                    target = destination;
+                }
+            }
+            if (target == null) {
+                LOG.warn("{} does not belong in {}. Leaving it in place.", photo.getKey(), targetFolder);
+                stats.unmatched();
+            } else if (!claimed.add(target)) {
+                stats.failed(photo.getKey(), new FileAlreadyExistsException(target.toString(), photo.getKey().toString(), "Another file is renamed to it"));
+            } else {
+                folderRenames.put(photo.getKey(), target);
+            }
+        }
+
+        boolean folderRenamed = false;
+        if (!targetFolder.equals(folder) && folderRenames.size() == photoDestinations.size() && isMovable(folder, targetFolder, indexedFolders)) {
+            try {
+                Files.createDirectories(targetFolder.getParent());
+                Files.move(folder, targetFolder);
+                stats.folderRenamed();
+                folderRenamed = true;
+                for (Path file : files) {
+                    occupied.remove(file);
+                    occupied.add(targetFolder.resolve(file.getFileName()));
+                }
+            } catch (IOException e) {
+                // The files are renamed one by one instead
+                LOG.warn("Failed to rename {} to {}", folder, targetFolder, e);
+            }
+        }
+
+        for (Map.Entry<Path, Path> rename : folderRenames.entrySet()) {
+            Path source = folderRenamed ? targetFolder.resolve(rename.getKey().getFileName()) : rename.getKey();
+            if (source.equals(rename.getValue())) {
+                stats.unchanged();
+            } else {
+                renames.put(source, rename.getValue());
+            }
+        }
+        return folderRenamed;
+    }
+
+    /**
+     * The folder goes where most of its photos go, and keeps its place if it still gets as many photos as any other
+     * folder. A photo which is also in another Album votes for that Album's folder too, so when a few folders get the
+     * same number of votes, the one with the same name, apart from the naming rules, is taken.
+     * @return The folder the photos of the folder go to, or null if that is ambiguous
+     */
+    private static Path targetFolder(Path folder, Map<Path, Integer> votes) {
+        int mostVotes = 0;
+        for (int folderVotes : votes.values()) {
+            mostVotes = Math.max(mostVotes, folderVotes);
+        }
+        if (votes.getOrDefault(folder, 0) == mostVotes) {
+            return folder;
+        }
+        List<Path> candidates = new ArrayList<>();
+        for (Map.Entry<Path, Integer> vote : votes.entrySet()) {
+            if (vote.getValue() == mostVotes) {
+                candidates.add(vote.getKey());
+            }
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        String folderName = normalized(folder.getFileName().toString());
+        Path sameName = null;
+        for (Path candidate : candidates) {
+            if (normalized(candidate.getFileName().toString()).equals(folderName)) {
+                if (sameName != null) {
+                    return null;
+                }
+                sameName = candidate;
+            }
+        }
+        return sameName;
+    }
+
+    /**
+     * @return The name without whatever naming rules may change: case, spaces, punctuation
+     */
+    static String normalized(String name) {
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private boolean isMovable(Path folder, Path targetFolder, Set<Path> indexedFolders) {
+        if (Files.exists(targetFolder) || targetFolder.startsWith(folder)) {
+            return false;
+        }
+        // The folders inside it are laid out on their own
+        for (Path indexedFolder : indexedFolders) {
+            if (!indexedFolder.equals(folder) && indexedFolder.startsWith(folder)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The paths of the photo named in the file, recognized as the last number in the name which is a photo id
+     */
+    static List<Path> destinations(String fileName, LongObjectMap<List<Path>> layout) {
+        List<Path> destinations = null;
+        int i = 0;
+        while (i < fileName.length()) {
+            if (!isDigit(fileName.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < fileName.length() && isDigit(fileName.charAt(i))) {
+                i++;
+            }
+            if (i - start <= 18) {
+                List<Path> photoDestinations = layout.get(Long.parseLong(fileName, start, i, 10));
+                if (photoDestinations != null) {
+                    destinations = photoDestinations;
+                }
+            }
+        }
+        return destinations;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Executes the renames. When the new name is still taken by a file which gets renamed itself, like when two files
+     * swap names, the file steps aside under a temporary name and takes its new name after all other renames. If it
+     * can't, it gets its old name back, as no later relayout or run recognizes the temporary name.
+     */
+    private void renameFiles(Map<Path, Path> renames, Set<Path> occupied, RelayoutStats stats) {
+        // The renames of the files which stepped aside, by their temporary name
+        Map<Path, Map.Entry<Path, Path>> deferred = new LinkedHashMap<>();
+        Set<Path> createdFolders = new HashSet<>();
+        for (Map.Entry<Path, Path> rename : renames.entrySet()) {
+            Path source = rename.getKey();
+            Path target = rename.getValue();
+            if (!occupied.contains(target)) {
+                if (rename(source, target, occupied, createdFolders, stats)) {
+                    stats.renamed();
+                }
+            } else if (renames.containsKey(target)) {
+                Path temp = source.resolveSibling(source.getFileName() + TEMP_SUFFIX);
+                if (rename(source, temp, occupied, createdFolders, stats)) {
+                    deferred.put(temp, rename);
+                }
+            } else {
+                stats.failed(source, new FileAlreadyExistsException(target.toString(), source.toString(), "Not part of the layout"));
+            }
+        }
+        deferred.forEach((temp, rename) -> {
+            Path source = rename.getKey();
+            Path target = rename.getValue();
+            if (occupied.contains(target)) {
+                stats.failed(source, new FileAlreadyExistsException(target.toString(), source.toString(), "Was not vacated"));
+                restore(temp, source, occupied, stats);
+            } else if (rename(temp, target, occupied, createdFolders, stats)) {
+                stats.renamed();
+            } else {
+                restore(temp, source, occupied, stats);
+            }
+        });
+    }
+
+    private void restore(Path temp, Path source, Set<Path> occupied, RelayoutStats stats) {
+        if (occupied.contains(source)) {
+            // Taken by now, by another file that was renamed
+            stats.stranded(temp);
+            return;
+        }
+        try {
+            Files.move(temp, source);
+            occupied.remove(temp);
+            occupied.add(source);
+        } catch (IOException e) {
+            LOG.error("Failed to restore {} to {}", temp, source, e);
+            stats.stranded(temp);
+        }
+    }
+
+    private boolean rename(Path source, Path target, Set<Path> occupied, Set<Path> createdFolders, RelayoutStats stats) {
+        try {
+            // Only once per folder, rather than checking it for every file
+            if (createdFolders.add(target.getParent())) {
+                Files.createDirectories(target.getParent());
+            }
+            Files.move(source, target);
+            occupied.remove(source);
+            occupied.add(target);
+            return true;
+        } catch (IOException e) {
+            LOG.error("Failed to rename {} to {}", source, target, e);
+            stats.failed(source, e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the folder, and then its parents, as long as they are empty.
+     */
+    private void deleteIfEmpty(Path folder) {
+        while (folder != null && folder.startsWith(destinationPath) && !folder.equals(destinationPath)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+                if (entries.iterator().hasNext()) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Already gone, or not ours to clean up
+                return;
+            }
+            try {
+                Files.delete(folder);
+            } catch (IOException e) {
+                LOG.debug("Failed to delete empty folder {}", folder, e);
+                return;
+            }
+            folder = folder.getParent();
+        }
+    }
+}
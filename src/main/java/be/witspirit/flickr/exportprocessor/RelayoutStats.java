@@ -0,0 +1,94 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics of a single relayout run.
+ */
+public class RelayoutStats {
+    private final long startNanos = System.nanoTime();
+    private long endNanos;
+
+    private long foldersRenamed;
+    private long filesRenamed;
+    private long filesUnchanged;
+    private long filesUnmatched;
+    private final Map<Path, Exception> failures = new LinkedHashMap<>();
+    private final List<Path> stranded = new ArrayList<>();
+
+    void folderRenamed() {
+        foldersRenamed++;
+    }
+
+    void renamed() {
+        filesRenamed++;
+    }
+
+    void unchanged() {
+        filesUnchanged++;
+    }
+
+    void unmatched() {
+        filesUnmatched++;
+    }
+
+    void failed(Path source, Exception e) {
+        failures.put(source, e);
+    }
+
+    void stranded(Path temp) {
+        stranded.add(temp);
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+    }
+
+    public long getFoldersRenamed() {
+        return foldersRenamed;
+    }
+
+    /**
+     * @return The number of files renamed on their own, so not counting those which moved along with their folder
+     */
+    public long getFilesRenamed() {
+        return filesRenamed;
+    }
+
+    public long getFilesUnchanged() {
+        return filesUnchanged;
+    }
+
+    /**
+     * @return The number of files which were left in place, as they are not recognized as a photo of their folder
+     */
+    public long getFilesUnmatched() {
+        return filesUnmatched;
+    }
+
+    public Map<Path, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return The files left under their temporary name, as neither their new nor their old name could be taken back
+     */
+    public List<Path> getStranded() {
+        return stranded;
+    }
+
+    public Duration getDuration() {
+        return Duration.ofNanos((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d folders and %d files renamed in %d ms, %d unchanged, %d unmatched, %d failures, %d stranded",
+                foldersRenamed, filesRenamed, getDuration().toMillis(), filesUnchanged, filesUnmatched, failures.size(), stranded.size());
+    }
+}
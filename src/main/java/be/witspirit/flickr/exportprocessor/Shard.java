@@ -0,0 +1,63 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+/**
+ * The part of the export handled by this process, when the work is spread over several processes: shard k of n.
+ * Photos are assigned by a stable hash of their id, so all processes, on any machine, agree on the assignment without
+ * coordinating.
+ */
+@Component
+public class Shard {
+    public static final Shard ALL = new Shard(1, 1);
+
+    private final int number;
+    private final int count;
+
+    public Shard(@Value("${shard.number}") int number, @Value("${shard.count}") int count) {
+        if (count < 1 || number < 1 || number > count) {
+            throw new IllegalArgumentException("Invalid shard "+number+" of "+count);
+        }
+        this.number = number;
+        this.count = count;
+    }
+
+    /**
+     * @return Whether this process handles the complete export
+     */
+    public boolean isAll() {
+        return count == 1;
+    }
+
+    public boolean contains(String photoId) {
+        return count == 1 || owner(photoId, count) == number;
+    }
+
+    /**
+     * @return The number of the shard (1 to count) handling the photo
+     */
+    static int owner(String photoId, int count) {
+        // 64 bit FNV-1a, which is fixed by its definition, so the assignment never changes between versions
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < photoId.length(); i++) {
+            hash ^= photoId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return (int) Long.remainderUnsigned(hash, count) + 1;
+    }
+
+    /**
+     * @return The file, made private to this shard, for files which a process appends to, like its journal
+     */
+    public Path local(Path path) {
+        return isAll() ? path : path.resolveSibling(path.getFileName() + "." + number + "-of-" + count);
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + number + " of " + count;
+    }
+}
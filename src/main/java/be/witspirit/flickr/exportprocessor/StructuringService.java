@@ -1,8 +1,13 @@
 package be.witspirit.flickr.exportprocessor;
 
+import be.witspirit.flickr.exportprocessor.index.LongObjectMap;
+import be.witspirit.flickr.exportprocessor.index.LongSet;
 import be.witspirit.flickr.exportprocessor.json.Album;
 import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
 import be.witspirit.flickr.exportprocessor.json.Tag;
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import be.witspirit.flickr.exportprocessor.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,15 +16,24 @@ import org.springframework.util.StringUtils;
 
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 @Service
 public class StructuringService {
     private static final Logger LOG = LoggerFactory.getLogger(StructuringService.class);
 
+    static final String ALBUMS_METRIC = "structure.albums";
+    static final String PHOTOS_METRIC = "structure.photos";
+    static final String ALBUM_TIME_METRIC = "structure.album";
+    private static final Counter ALBUMS_STRUCTURED = MetricsRegistry.global().counter(ALBUMS_METRIC);
+    private static final Counter PHOTOS_STRUCTURED = MetricsRegistry.global().counter(PHOTOS_METRIC);
+    private static final Timer STRUCTURE_TIME = MetricsRegistry.global().timer(ALBUM_TIME_METRIC);
+
+    static final String UNCATEGORIZED_ID = "UNCATEGORIZED";
+    static final String UNCATEGORIZED_NAME = "Uncategorized Photos";
+
     private static final DateTimeFormatter DATE_TAKEN_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd kk:mm:ss");
 
     private final Path destinationPath;
@@ -29,25 +43,38 @@ public class StructuringService {
     }
 
     public PhotoDescriptor toPhotoDescriptor(PhotoMeta photoMeta) {
-        Set<String> tags = photoMeta.getTags().stream().map(Tag::getTag).collect(Collectors.toSet());
+        List<String> tags = new ArrayList<>(photoMeta.getTags().size());
+        for (Tag tag : photoMeta.getTags()) {
+            tags.add(tag.getTag());
+        }
         return PhotoDescriptor.builder()
                 .id(photoMeta.getId())
                 .name(photoMeta.getName())
                 .description(photoMeta.getDescription())
-                .dateTaken(LocalDateTime.parse(photoMeta.getDateTaken(), DATE_TAKEN_FORMAT))
+                .dateTaken(parseDateTaken(photoMeta.getDateTaken()))
                 .flickrFilename(photoMeta.getOriginal())
-                .tags(tags)
+                .tagIds(TagDictionary.global().encode(tags))
                 .build();
     }
 
+    static LocalDateTime parseDateTaken(String dateTaken) {
+        return LocalDateTime.parse(dateTaken, DATE_TAKEN_FORMAT);
+    }
 
     public Path deriveAlbumPath(Album album, Collection<PhotoDescriptor> albumPhotos) {
         String year = deriveYear(albumPhotos);
-        String albumFolder = FileNameSanitizer.text(album.getTitle()).trim();
+        String albumFolder = FileNameSanitizer.cachedText(album.getTitle()).trim();
 
         return destinationPath.resolve(year).resolve(albumFolder);
     }
 
+    /**
+     * @return The folder for the photos which are not in any Album
+     */
+    public Path getUncategorizedAlbumPath() {
+        return destinationPath.resolve("Uncategorized_Photos");
+    }
+
     private String deriveYear(Collection<PhotoDescriptor> photoDescriptors) {
         // Let us try to obtain the 'earliest' date_taken
         return photoDescriptors.stream()
@@ -71,43 +98,64 @@ public class StructuringService {
         return photoToAlbum;
     }
 
+    /**
+     * @return By photo, its path in every Album it appears in. An unnamed photo is named after each Album separately,
+     * so every path takes the name the photo has in that Album.
+     */
+    public Map<PhotoDescriptor, List<Path>> computePhotoDestinations(List<AlbumDescriptor> albumDescriptors) {
+        Map<PhotoDescriptor, List<Path>> photoDestinations = new HashMap<>();
+        for (AlbumDescriptor album : albumDescriptors) {
+            for (PhotoDescriptor photo : album.getPhotos()) {
+                photoDestinations.computeIfAbsent(photo, id -> new ArrayList<>()).add(album.getAlbumPath().resolve(photo.getDestinationFileName()));
+            }
+        }
+        return photoDestinations;
+    }
+
     public List<AlbumDescriptor> deriveAlbumStructure(List<Album> albums, Map<String, PhotoMeta> photoMetaIndex) {
-        Map<String, PhotoDescriptor> photos = photoMetaIndex.values().stream()
-                .map(this::toPhotoDescriptor)
-                .collect(Collectors.toMap(PhotoDescriptor::getId, Function.identity()));
+        // Flickr photo ids are numeric, which allows to index them without boxing and hashing Strings
+        LongObjectMap<PhotoDescriptor> photos = new LongObjectMap<>(photoMetaIndex.size());
+        for (PhotoMeta photoMeta : photoMetaIndex.values()) {
+            PhotoDescriptor photo = toPhotoDescriptor(photoMeta);
+            if (photos.put(Long.parseLong(photo.getId()), photo) != null) {
+                throw new IllegalStateException("Duplicate metadata for photo " + photo.getId());
+            }
+        }
 
         // First consider the Album folders and assign all photos to Albums...
-        List<AlbumDescriptor> albumDescriptors = albums.stream()
-                .map(album -> {
-                    List<PhotoDescriptor> albumPhotos = album.getPhotoIds().stream()
-                            .map(photoId -> {
-                                PhotoDescriptor photoDesc = photos.get(photoId);
-                                if (photoDesc == null) {
-                                    LOG.warn("No PhotoDescriptor found for PhotoId {} in Album {}", photoId, album.getTitle());
-                                }
-                                return photoDesc;
-                            })
-                            .filter(Objects::nonNull)
-                            .collect(Collectors.toList());
-                    Path albumPath = deriveAlbumPath(album, albumPhotos);
-                    return new AlbumDescriptor(album.getId(), album.getTitle(), albumPhotos, albumPath);
-                })
-                .collect(Collectors.toList());
-
-
-
-        // Add an AlbumDescriptor with the photo's not in an album
-        Set<String> albumAssignedPhotoIds = albumDescriptors.stream()
-                .map(AlbumDescriptor::getPhotos)
-                .flatMap(List::stream)
-                .map(PhotoDescriptor::getId)
-                .collect(Collectors.toSet());
-        Set<String> photoIdsWithoutAlbum = photos.keySet();
-        photoIdsWithoutAlbum.removeAll(albumAssignedPhotoIds);
-        List<PhotoDescriptor> uncategorizedPhotos = photoIdsWithoutAlbum.stream().map(photos::get).collect(Collectors.toList());
-
-        AlbumDescriptor uncategorizedAlbum = new AlbumDescriptor("UNCATEGORIZED", "Uncategorized Photos", uncategorizedPhotos, destinationPath.resolve("Uncategorized_Photos"));
+        LongSet albumAssignedPhotoIds = new LongSet(photos.size());
+        List<AlbumDescriptor> albumDescriptors = new ArrayList<>(albums.size() + 1);
+        for (Album album : albums) {
+            long start = System.nanoTime();
+            List<PhotoDescriptor> albumPhotos = new ArrayList<>(album.getPhotoIds().size());
+            for (String photoId : album.getPhotoIds()) {
+                long numericPhotoId = Long.parseLong(photoId);
+                PhotoDescriptor photoDesc = photos.get(numericPhotoId);
+                if (photoDesc == null) {
+                    LOG.warn("No PhotoDescriptor found for PhotoId {} in Album {}", photoId, album.getTitle());
+                } else {
+                    albumPhotos.add(photoDesc);
+                    albumAssignedPhotoIds.add(numericPhotoId);
+                }
+            }
+            Path albumPath = deriveAlbumPath(album, albumPhotos);
+            albumDescriptors.add(new AlbumDescriptor(album.getId(), album.getTitle(), albumPhotos, albumPath));
+            structured(start, albumPhotos.size());
+        }
+
+        // Add an AlbumDescriptor with the photo's not in an album. They are ordered by id, like in the other ways to
+        // structure them, as an unnamed photo gets its name from its position.
+        List<PhotoDescriptor> uncategorizedPhotos = new ArrayList<>();
+        photos.forEach((photoId, photo) -> {
+            if (!albumAssignedPhotoIds.contains(photoId)) {
+                uncategorizedPhotos.add(photo);
+            }
+        });
+        uncategorizedPhotos.sort(Comparator.comparingLong(photo -> Long.parseLong(photo.getId())));
+
+        AlbumDescriptor uncategorizedAlbum = new AlbumDescriptor(UNCATEGORIZED_ID, UNCATEGORIZED_NAME, uncategorizedPhotos, getUncategorizedAlbumPath());
         albumDescriptors.add(uncategorizedAlbum);
+        structured(System.nanoTime(), uncategorizedPhotos.size());
 
         // Apparently there are photos with missing metadata, which don't have proper names. Only after we have the Album
         // structure, we can probably derive sensible photo names, based on the Albums.
@@ -118,16 +166,8 @@ public class StructuringService {
                 PhotoDescriptor photo = albumPhotos.get(i);
                 if (!StringUtils.hasText(photo.getName())) {
                     LOG.trace("Photo {} in Album {} has a missing name", photo.getId(), album.getName());
-                    String derivedPhotoName = String.format("%s-%03d", FileNameSanitizer.text(album.getName()), i+1);
-                    PhotoDescriptor newPhoto = PhotoDescriptor.builder()
-                            .id(photo.getId())
-                            .name(derivedPhotoName)
-                            .description(photo.getDescription())
-                            .dateTaken(photo.getDateTaken())
-                            .flickrFilename(photo.getFlickrFilename())
-                            .tags(photo.getTags())
-                            .build();
-                    albumPhotos.set(i, newPhoto);
+                    String derivedPhotoName = derivePhotoName(album.getName(), i);
+                    albumPhotos.set(i, withName(photo, derivedPhotoName));
                     LOG.trace("Assigned {} at index {}", derivedPhotoName, i);
                 }
             }
@@ -135,4 +175,81 @@ public class StructuringService {
 
         return albumDescriptors;
     }
+
+    /**
+     * As {@link #deriveAlbumStructure(List, Map)}, but straight from the catalog. The photos of the resulting Albums are
+     * views on the catalog, so a PhotoDescriptor only exists while it is being used.
+     */
+    public List<AlbumDescriptor> deriveAlbumStructure(List<Album> albums, PhotoCatalog catalog) {
+        boolean[] assignedRows = new boolean[catalog.size()];
+        List<AlbumDescriptor> albumDescriptors = new ArrayList<>(albums.size() + 1);
+        for (Album album : albums) {
+            long start = System.nanoTime();
+            int[] rows = new int[album.getPhotoIds().size()];
+            int photoCount = 0;
+            for (String photoId : album.getPhotoIds()) {
+                int row = catalog.rowOf(Long.parseLong(photoId));
+                if (row < 0) {
+                    LOG.warn("No PhotoDescriptor found for PhotoId {} in Album {}", photoId, album.getTitle());
+                } else {
+                    rows[photoCount++] = row;
+                    assignedRows[row] = true;
+                }
+            }
+            rows = Arrays.copyOf(rows, photoCount);
+            Path albumPath = destinationPath.resolve(deriveYear(catalog, rows)).resolve(FileNameSanitizer.cachedText(album.getTitle()).trim());
+            albumDescriptors.add(catalogAlbum(album.getId(), album.getTitle(), catalog, rows, albumPath));
+            structured(start, rows.length);
+        }
+
+        // Add an AlbumDescriptor with the photo's not in an album. The rows are ordered by id.
+        int[] uncategorizedRows = new int[catalog.size()];
+        int uncategorizedCount = 0;
+        for (int row = 0; row < assignedRows.length; row++) {
+            if (!assignedRows[row]) {
+                uncategorizedRows[uncategorizedCount++] = row;
+            }
+        }
+        albumDescriptors.add(catalogAlbum(UNCATEGORIZED_ID, UNCATEGORIZED_NAME, catalog, Arrays.copyOf(uncategorizedRows, uncategorizedCount), getUncategorizedAlbumPath()));
+        structured(System.nanoTime(), uncategorizedCount);
+
+        return albumDescriptors;
+    }
+
+    private static void structured(long start, int photoCount) {
+        STRUCTURE_TIME.recordSince(start);
+        ALBUMS_STRUCTURED.increment();
+        PHOTOS_STRUCTURED.add(photoCount);
+    }
+
+    private AlbumDescriptor catalogAlbum(String id, String name, PhotoCatalog catalog, int[] rows, Path albumPath) {
+        // Photos with missing metadata get a name based on their Album, as in deriveAlbumStructure(List, Map)
+        return new AlbumDescriptor(id, name, catalog.photos(rows, index -> derivePhotoName(name, index)), albumPath);
+    }
+
+    private String deriveYear(PhotoCatalog catalog, int[] rows) {
+        long earliest = Long.MAX_VALUE;
+        for (int row : rows) {
+            long dateTaken = catalog.epochSecondTaken(row);
+            if (dateTaken != PhotoCatalog.UNKNOWN_DATE && dateTaken < earliest) {
+                earliest = dateTaken;
+            }
+        }
+        return earliest == Long.MAX_VALUE ? "UNKNOWN" : Integer.toString(LocalDateTime.ofEpochSecond(earliest, 0, ZoneOffset.UTC).getYear());
+    }
+
+    static String derivePhotoName(String albumName, int index) {
+        return String.format("%s-%03d", FileNameSanitizer.cachedText(albumName), index + 1);
+    }
+
+    static PhotoDescriptor withName(PhotoDescriptor photo, String name) {
+        return PhotoDescriptor.builder()
+                .id(photo.getId())
+                .name(name)
+                .description(photo.getDescription())
+                .dateTaken(photo.getDateTaken())
+                .flickrFilename(photo.getFlickrFilename())
+                .tagIds(photo.getTagIds())
+                .build();
+    }
 }
@@ -0,0 +1,104 @@
+package be.witspirit.flickr.exportprocessor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary of the distinct tags, assigning each tag an int id. Photos refer to their tags by id, so every
+ * tag string is only held once. Everything we derive from a tag for the file names is computed once per distinct tag.
+ */
+public class TagDictionary {
+    private static final Set<String> IGNORED_TAGS = Set.of("flickrandroidapp:filter=none", "iphoneography", "instagram app", "uploaded:by=instagram", "Normal", "square", "square format");
+
+    private static final TagDictionary GLOBAL = new TagDictionary();
+
+    private final Map<String, Integer> idsByTag = new ConcurrentHashMap<>();
+    private volatile Entry[] entries = new Entry[1024];
+    private int size;
+
+    public static TagDictionary global() {
+        return GLOBAL;
+    }
+
+    public int id(String tag) {
+        Integer id = idsByTag.get(tag);
+        return id != null ? id : register(tag);
+    }
+
+    /**
+     * @return The instance of the tag held by the dictionary, so equal tags share their String
+     */
+    public String intern(String tag) {
+        return tag == null ? null : tag(id(tag));
+    }
+
+    private synchronized int register(String tag) {
+        Integer existingId = idsByTag.get(tag);
+        if (existingId != null) {
+            return existingId;
+        }
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        int id = size++;
+        entries[id] = new Entry(tag, FileNameSanitizer.tag(tag), IGNORED_TAGS.contains(tag));
+        idsByTag.put(tag, id);
+        return id;
+    }
+
+    public String tag(int id) {
+        return entries[id].tag;
+    }
+
+    /**
+     * @return The sanitized form of the tag, for use in a file name
+     */
+    public String fileNameFragment(int id) {
+        return entries[id].fileNameFragment;
+    }
+
+    /**
+     * @return true if the tag should not end up in the file name
+     */
+    public boolean isIgnored(int id) {
+        return entries[id].ignored;
+    }
+
+    /**
+     * @return The distinct tag ids, ordered by their tag (as a SortedSet of the tags would be)
+     */
+    public int[] encode(Collection<String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return new int[0];
+        }
+        String[] sortedTags = tags.toArray(new String[0]);
+        Arrays.sort(sortedTags);
+        int[] ids = new int[sortedTags.length];
+        int count = 0;
+        for (int i = 0; i < sortedTags.length; i++) {
+            if (i == 0 || !sortedTags[i].equals(sortedTags[i - 1])) {
+                ids[count++] = id(sortedTags[i]);
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    public int size() {
+        return idsByTag.size();
+    }
+
+    private static class Entry {
+        private final String tag;
+        private final String fileNameFragment;
+        private final boolean ignored;
+
+        private Entry(String tag, String fileNameFragment, boolean ignored) {
+            this.tag = tag;
+            this.fileNameFragment = fileNameFragment;
+            this.ignored = ignored;
+        }
+    }
+}
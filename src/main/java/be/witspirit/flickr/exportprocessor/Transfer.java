@@ -4,16 +4,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public enum Transfer {
     COPY("Copy", "Copied", "Copying", Files::copy),
-    MOVE("Move", "Moved", "Moving", Files::move)
+    MOVE("Move", "Moved", "Moving", Files::move),
+    /**
+     * Hard links the destination to the source, falling back to a copy when not possible (e.g. different file system)
+     */
+    LINK("Link", "Linked", "Linking", Transfer::linkOrCopy),
+    /**
+     * Copy-on-write clone of the source, falling back to a copy when the file system does not support it
+     */
+    REFLINK("Clone", "Cloned", "Cloning", Transfer::reflinkOrCopy)
     ;
 
     private static final Logger LOG = LoggerFactory.getLogger(Transfer.class);
 
+    private static final String OS_NAME = System.getProperty("os.name").toLowerCase();
+    // We don't get access to cloning from Java, so we rely on cp, which takes a process per file. Destination file stores
+    // in this set don't support cloning, so we copy to them straight away, rather than starting a process to find out.
+    private static final Set<FileStore> REFLINK_UNSUPPORTED = ConcurrentHashMap.newKeySet();
+
     private String action;
     private String actionCompleted;
     private String actionInProgress;
@@ -26,17 +46,46 @@ public enum Transfer {
         this.operation = operation;
     }
 
-    public void transfer(Path source, Path destination) {
+    /**
+     * @return true if the file was transferred, false if the destination was already present
+     */
+    public boolean transfer(Path source, Path destination) {
         LOG.debug(actionInProgress+" {} -> {}...", source, destination);
         if (destinationAlreadyPresent(destination, source)) {
             LOG.debug("Destination {} already exists. Skipping...", destination);
+            return false;
         } else {
-            try {
-                operation.transfer(source, destination);
-                LOG.debug(actionCompleted+" {} -> {}", source, destination);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to "+action.toLowerCase() + source + " -> " + destination, e);
+            perform(source, destination);
+            return true;
+        }
+    }
+
+    /**
+     * Variant which answers the existence of the destination from the DestinationIndex, rather than the file system.
+     * @return true if the file was transferred, false if the destination was already present
+     */
+    public boolean transfer(Path source, long sourceSize, Path destination, DestinationIndex destinationIndex) {
+        LOG.debug(actionInProgress+" {} -> {}...", source, destination);
+        OptionalLong destinationSize = destinationIndex.size(destination);
+        if (destinationSize.isPresent()) {
+            if (destinationSize.getAsLong() != sourceSize) {
+                throw new RuntimeException("Destination "+destination+" already present, but different from "+source);
             }
+            LOG.debug("Destination {} already exists. Skipping...", destination);
+            return false;
+        } else {
+            perform(source, destination);
+            destinationIndex.recordWritten(destination, sourceSize);
+            return true;
+        }
+    }
+
+    private void perform(Path source, Path destination) {
+        try {
+            operation.transfer(source, destination);
+            LOG.debug(actionCompleted+" {} -> {}", source, destination);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to "+action.toLowerCase() + source + " -> " + destination, e);
         }
     }
 
@@ -58,6 +107,83 @@ public enum Transfer {
         }
     }
 
+    private static void linkOrCopy(Path source, Path destination) throws IOException {
+        try {
+            Files.createLink(destination, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            LOG.debug("Unable to link {} -> {} ({}). Copying instead...", source, destination, e.toString());
+            Files.copy(source, destination);
+        }
+    }
+
+    private static void reflinkOrCopy(Path source, Path destination) throws IOException {
+        FileStore destinationStore = Files.getFileStore(destination.getParent());
+        if (!REFLINK_UNSUPPORTED.contains(destinationStore)) {
+            Clone clone = clone(source, destination);
+            if (clone == Clone.CLONED) {
+                return;
+            }
+            if (clone == Clone.UNSUPPORTED) {
+                LOG.info("{} does not support cloning. Copying instead, for all files on it...", destinationStore);
+                REFLINK_UNSUPPORTED.add(destinationStore);
+            } else {
+                // Only this file, as it may well succeed for the next one
+                LOG.debug("Unable to clone {} -> {}. Copying instead...", source, destination);
+            }
+            Files.deleteIfExists(destination); // Clean up a potentially partial clone
+        }
+        Files.copy(source, destination);
+    }
+
+    private static Clone clone(Path source, Path destination) throws IOException {
+        List<String> command;
+        if (OS_NAME.contains("linux")) {
+            command = List.of("cp", "--reflink=always", "--", source.toString(), destination.toString());
+        } else if (OS_NAME.contains("mac")) {
+            command = List.of("cp", "-c", source.toString(), destination.toString());
+        } else {
+            return Clone.UNSUPPORTED;
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+        // So we can tell from the message why it failed
+        processBuilder.environment().put("LC_ALL", "C");
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            LOG.debug("Unable to start {}", command.get(0), e);
+            return Clone.UNSUPPORTED;
+        }
+        try {
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (process.waitFor() == 0) {
+                return Clone.CLONED;
+            }
+            LOG.debug("Cloning {} -> {} failed: {}", source, destination, output.trim());
+            return isCloningUnsupported(output) ? Clone.UNSUPPORTED : Clone.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + source + " -> " + destination, e);
+        }
+    }
+
+    /**
+     * @return Whether the message of a failed clone tells that the file system can't clone at all, e.g. as it is not
+     * copy-on-write or the source is on another file system, rather than that this particular file failed
+     */
+    static boolean isCloningUnsupported(String output) {
+        String message = output.toLowerCase();
+        return message.contains("not supported") || message.contains("cross-device") || message.contains("inappropriate ioctl");
+    }
+
+    static boolean isCloningUnsupported(FileStore fileStore) {
+        return REFLINK_UNSUPPORTED.contains(fileStore);
+    }
+
+    private enum Clone {
+        CLONED, UNSUPPORTED, FAILED
+    }
+
     @FunctionalInterface
     private interface TransferOperation {
         void transfer(Path source, Path destination) throws IOException;
@@ -0,0 +1,538 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import be.witspirit.flickr.exportprocessor.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the transfers of an Album structure on a pool of I/O workers.
+ * All transfers of a single source are handled by the same task, so the copies to extra Albums are always completed
+ * before the source is moved into its final Album. Sources inside a content archive are extracted straight into their
+ * first Album instead, and placed in the extra Albums from there.
+ */
+@Service
+public class TransferEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(TransferEngine.class);
+    // Every photo handled, whether it was transferred, skipped or failed
+    private static final Counter PHOTOS = MetricsRegistry.global().counter("transfer.photos");
+    private static final Map<Transfer, Timer> TRANSFER_TIME = new EnumMap<>(Transfer.class);
+    static {
+        for (Transfer transfer : Transfer.values()) {
+            TRANSFER_TIME.put(transfer, MetricsRegistry.global().timer("transfer." + transfer.name().toLowerCase()));
+        }
+    }
+    private static final long STOP_TIMEOUT_SECONDS = 60;
+
+    private final StructuringService structuringService;
+    private final DirectoryIndex directoryIndex;
+    private final DuplicateDetectionService duplicateDetectionService;
+    private final Shard shard;
+    private final int workers;
+    private final Transfer duplicateTransfer;
+    private final boolean skipDuplicates;
+    private final Path journalPath;
+    private final int journalSyncBatchSize;
+    private final Path manifestPath;
+
+    private volatile boolean stopRequested;
+    // Every session has its own workers, so several can run at once without taking over each other's
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    public TransferEngine(StructuringService structuringService,
+                          DirectoryIndex directoryIndex,
+                          DuplicateDetectionService duplicateDetectionService,
+                          Shard shard,
+                          @Value("${transfer.workers}") int workers,
+                          @Value("${transfer.duplicate-mode}") Transfer duplicateTransfer,
+                          @Value("${transfer.skip-duplicates}") boolean skipDuplicates,
+                          @Value("${transfer.journal}") String journalFile,
+                          @Value("${transfer.journal.sync-batch-size}") int journalSyncBatchSize,
+                          @Value("${transfer.manifest}") String manifestFile) {
+        this.structuringService = structuringService;
+        this.directoryIndex = directoryIndex;
+        this.duplicateDetectionService = duplicateDetectionService;
+        this.shard = shard;
+        this.workers = workers;
+        this.duplicateTransfer = duplicateTransfer;
+        this.skipDuplicates = skipDuplicates;
+        // The processes of the other shards append to their own journal and manifest
+        this.journalPath = StringUtils.hasText(journalFile) ? shard.local(Path.of(journalFile)) : null;
+        this.journalSyncBatchSize = journalSyncBatchSize;
+        this.manifestPath = StringUtils.hasText(manifestFile) ? shard.local(Path.of(manifestFile)) : null;
+    }
+
+    public TransferStats transfer(List<AlbumDescriptor> albumDescriptors, Map<String, ContentDescriptor> photoIdToContentDescriptor) {
+        // First, create all folders
+        for (AlbumDescriptor albumDescriptor : albumDescriptors) {
+            createAlbumFolder(albumDescriptor);
+        }
+
+        // Then, move or copy all files to their respective folders
+        Session session = start(photoIdToContentDescriptor);
+        try {
+            Map<PhotoDescriptor, List<Path>> photos = structuringService.computePhotoDestinations(albumDescriptors);
+            // The Albums also hold the photos of other shards which share them, as their dates determine the Album folder
+            photos.keySet().removeIf(photo -> !shard.contains(photo.getId()));
+            session.expect(photos.size());
+            for (Map.Entry<PhotoDescriptor, List<Path>> photoEntry : photos.entrySet()) {
+                if (stopRequested) {
+                    break;
+                }
+                session.submit(photoEntry.getKey(), photoEntry.getValue());
+            }
+        } finally {
+            session.finish();
+        }
+        return session.run.stats;
+    }
+
+    /**
+     * Writes the transfers of the Album structure to a plan, rather than executing them. The plan can then be applied
+     * by {@link #apply(Path)}, without the metadata.
+     * @return The number of planned transfers
+     */
+    public long plan(List<AlbumDescriptor> albumDescriptors, Map<String, ContentDescriptor> photoIdToContentDescriptor, Path planPath) {
+        Map<String, String> originalIds = originalIds(photoIdToContentDescriptor);
+        Map<PhotoDescriptor, List<Path>> photos = structuringService.computePhotoDestinations(albumDescriptors);
+        Set<String> plannedOriginals = new HashSet<>();
+        photos.keySet().forEach(photo -> {
+            if (!originalIds.containsKey(photo.getId()) && photoIdToContentDescriptor.containsKey(photo.getId())) {
+                plannedOriginals.add(photo.getId());
+            }
+        });
+        // The destinations of a duplicate are placed from its original, along with the transfers of the original
+        Map<String, List<Path>> duplicateDestinations = new HashMap<>();
+        photos.forEach((photo, destinations) -> {
+            String originalId = originalIds.get(photo.getId());
+            if (plannedOriginals.contains(originalId)) {
+                duplicateDestinations.computeIfAbsent(originalId, id -> new ArrayList<>()).addAll(destinations);
+            }
+        });
+        try (TransferPlan.Writer plan = TransferPlan.write(planPath)) {
+            for (Map.Entry<PhotoDescriptor, List<Path>> photoEntry : photos.entrySet()) {
+                PhotoDescriptor photo = photoEntry.getKey();
+                ContentDescriptor contentDescriptor = photoIdToContentDescriptor.get(photo.getId());
+                if (contentDescriptor == null) {
+                    LOG.debug("No source for {}-{}", photo.getId(), photo.getName());
+                } else if (plannedOriginals.contains(originalIds.get(photo.getId()))) {
+                    LOG.debug("Planning {}-{} from {}, as it duplicates the content of that earlier upload", photo.getId(), photo.getName(), originalIds.get(photo.getId()));
+                } else {
+                    // Also a duplicate whose original is in no Album, like an upload without metadata, which keeps its own content
+                    List<TransferPlan.Operation> operations = operations(photo, photoEntry.getValue(), contentDescriptor);
+                    Path placed = photoEntry.getValue().get(0);
+                    for (Path duplicateDestination : duplicateDestinations.getOrDefault(photo.getId(), List.of())) {
+                        operations.add(new TransferPlan.Operation(photo.getId(), duplicateTransfer, operations.get(0).getSize(), placed, duplicateDestination));
+                    }
+                    plan.write(operations);
+                }
+            }
+            plan.commit();
+            return plan.getOperationCount();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write transfer plan "+planPath, e);
+        }
+    }
+
+    /**
+     * Executes a plan written by {@link #plan(List, Map, Path)}. The plan is streamed, so only the photos in flight
+     * are held. With a journal, an interrupted apply resumes where it stopped.
+     * When sharded, only the photos of this shard are transferred, so a single plan can be applied by several processes.
+     */
+    public TransferStats apply(Path planPath) {
+        try (TransferPlan.Reader plan = TransferPlan.read(planPath)) {
+            Session session = start(Map.of(), Map.of());
+            try {
+                plan.forEachPhoto(operations -> {
+                    if (!stopRequested && shard.contains(operations.get(0).getPhotoId())) {
+                        session.submit(operations);
+                    }
+                });
+            } finally {
+                session.finish();
+            }
+            return session.run.stats;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close transfer plan "+planPath, e);
+        }
+    }
+
+    public void createAlbumFolder(AlbumDescriptor albumDescriptor) {
+        Path albumPath = albumDescriptor.getAlbumPath();
+        try {
+            // Succeeds when another shard creates the same folder concurrently, as only an existing non-directory fails
+            Files.createDirectories(albumPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create directory structure for "+albumPath, e);
+        }
+    }
+
+    /**
+     * Starts a transfer run, to which the photos can be submitted as soon as all Albums they appear in are known. The
+     * folders of those Albums must exist by then.
+     */
+    public Session start(Map<String, ContentDescriptor> photoIdToContentDescriptor) {
+        return start(photoIdToContentDescriptor, originalIds(photoIdToContentDescriptor));
+    }
+
+    /**
+     * @return The id of the earlier upload by the id of every photo which duplicates its content, when skipping those
+     */
+    private Map<String, String> originalIds(Map<String, ContentDescriptor> photoIdToContentDescriptor) {
+        return skipDuplicates
+                ? duplicateDetectionService.findDuplicates(photoIdToContentDescriptor.values()).getOriginalIds()
+                : Map.of();
+    }
+
+    private Session start(Map<String, ContentDescriptor> photoIdToContentDescriptor, Map<String, String> originalIds) {
+        stopRequested = false;
+
+        TransferRun run = new TransferRun(
+                journalPath == null ? null : TransferJournal.open(journalPath, journalSyncBatchSize),
+                manifestPath == null ? null : DigestManifest.open(manifestPath));
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers * 4),
+                runnable -> new Thread(runnable, "transfer-" + threadCount.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        MetricsRegistry.global().gauge("transfer.queue", () -> executor.getQueue().size());
+        Session session = new Session(photoIdToContentDescriptor, originalIds, run, executor);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Requests the running transfers to stop. Transfers which did not start yet are cancelled, while the ones in flight
+     * are allowed to complete. Returns once all in-flight transfers are drained, or after {@value #STOP_TIMEOUT_SECONDS}
+     * seconds at most, so a session which is never finished can't hold up the shutdown.
+     */
+    @PreDestroy
+    public void stop() {
+        stopRequested = true;
+        sessions.forEach(session -> session.executor.shutdown());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+        try {
+            for (Session session : sessions) {
+                if (!session.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    LOG.warn("Transfers still in flight after {} s, no longer waiting for them", STOP_TIMEOUT_SECONDS);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for transfers to complete", e);
+        }
+    }
+
+    private void transferPhoto(PhotoDescriptor photo, List<Path> destinations, ContentDescriptor contentDescriptor, TransferRun run) {
+        List<TransferPlan.Operation> operations;
+        try {
+            operations = operations(photo, destinations, contentDescriptor);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to transfer {}", contentDescriptor.getPath(), e);
+            run.stats.failed(contentDescriptor.getPath(), e);
+            return;
+        }
+        execute(operations, run);
+    }
+
+    /**
+     * @param destinations The paths of the photo in all its Albums, as named in each Album
+     * @return The transfers which place the photo in all its Albums, in the order in which they have to be executed
+     */
+    private List<TransferPlan.Operation> operations(PhotoDescriptor photo, List<Path> destinations, ContentDescriptor contentDescriptor) throws IOException {
+        Path source = contentDescriptor.getPath();
+        long size = size(contentDescriptor);
+
+        Path firstDestination = destinations.get(0);
+        List<Path> extraDestinations = destinations.subList(1, destinations.size());
+
+        List<TransferPlan.Operation> operations = new ArrayList<>(destinations.size());
+        if (isInArchive(source)) {
+            // We can't move out of an archive, so we extract once, straight into the first album, and place the
+            // photo in the extra albums from there. That way, every byte is only written once.
+            operations.add(new TransferPlan.Operation(photo.getId(), Transfer.COPY, size, source, firstDestination));
+            for (Path copyDestination : extraDestinations) {
+                operations.add(new TransferPlan.Operation(photo.getId(), duplicateTransfer, size, firstDestination, copyDestination));
+            }
+        } else {
+            // We copy (or link) to extra albums first
+            for (Path copyDestination : extraDestinations) {
+                operations.add(new TransferPlan.Operation(photo.getId(), duplicateTransfer, size, source, copyDestination));
+            }
+            // Finally, we MOVE the remaining file
+            operations.add(new TransferPlan.Operation(photo.getId(), Transfer.MOVE, size, source, firstDestination));
+        }
+        return operations;
+    }
+
+    private static long size(ContentDescriptor contentDescriptor) throws IOException {
+        return contentDescriptor.getSize() >= 0 ? contentDescriptor.getSize() : Files.size(contentDescriptor.getPath());
+    }
+
+    private void execute(List<TransferPlan.Operation> operations, TransferRun run) {
+        if (stopRequested) {
+            run.stats.cancelled();
+            return;
+        }
+
+        Path lastDestination = operations.get(operations.size() - 1).getDestination();
+        if (run.journal != null && run.journal.isCompleted(lastDestination)) {
+            // The last transfer of a photo is only done after all others, so it was completely transferred in an earlier run
+            operations.forEach(operation -> run.stats.skipped());
+            return;
+        }
+
+        Path source = operations.get(0).getSource();
+        try {
+            VerifiedTransfer verifiedTransfer = run.manifest == null ? null : new VerifiedTransfer(run.manifest, source, operations.get(0).getSize());
+            for (TransferPlan.Operation operation : operations) {
+                VerifiedTransfer operationTransfer = verifiedTransfer;
+                if (verifiedTransfer != null && !operation.getSource().equals(source)) {
+                    // Placed from an earlier destination, like the extract of an archive, of which we know the digest by now
+                    operationTransfer = verifiedTransfer.continueFrom(operation.getSource());
+                }
+                transfer(operation.getTransfer(), operation.getSource(), operation.getDestination(), operation.getSize(), operationTransfer, run);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to transfer {}", source, e);
+            run.stats.failed(source, e);
+        }
+    }
+
+    private static boolean isInArchive(Path source) {
+        return source.getFileSystem() != FileSystems.getDefault();
+    }
+
+    private void transfer(Transfer transfer, Path source, Path destination, long size, VerifiedTransfer verifiedTransfer, TransferRun run) throws IOException {
+        if (run.journal != null) {
+            if (run.journal.isCompleted(destination)) {
+                run.stats.skipped();
+                return;
+            }
+            run.journal.planned(source, destination);
+        }
+
+        long start = System.nanoTime();
+        boolean transferred = verifiedTransfer == null
+                ? transfer.transfer(source, size, destination, run.destinationIndex)
+                : verifiedTransfer.transfer(transfer, destination, run.destinationIndex);
+        if (transferred) {
+            TRANSFER_TIME.get(transfer).recordSince(start);
+            run.stats.transferred(size);
+        } else {
+            run.stats.skipped();
+        }
+
+        if (run.journal != null) {
+            run.journal.completed(destination);
+        }
+    }
+
+    private static void awaitTermination(ThreadPoolExecutor executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for transfers to complete", e);
+        }
+    }
+
+    /**
+     * A started transfer run. Submitting a photo blocks while all workers are busy and their queue is full.
+     * A photo which duplicates the content of an earlier upload is not transferred from its own source. Its Albums get
+     * the earlier upload instead, once that is in place, which is when the session finishes.
+     */
+    public class Session {
+        private final Map<String, ContentDescriptor> photoIdToContentDescriptor;
+        private final Map<String, String> originalIds;
+        private final Set<String> originalsWithDuplicates;
+        private final TransferRun run;
+        private final Set<Path> sourceFolders = ConcurrentHashMap.newKeySet();
+        private final Set<Path> destinationFolders = ConcurrentHashMap.newKeySet();
+        private final Map<String, Path> placedOriginals = new ConcurrentHashMap<>();
+        private final Map<PhotoDescriptor, List<Path>> duplicates = new ConcurrentHashMap<>();
+        private final ThreadPoolExecutor executor;
+
+        private Session(Map<String, ContentDescriptor> photoIdToContentDescriptor, Map<String, String> originalIds, TransferRun run,
+                        ThreadPoolExecutor executor) {
+            this.photoIdToContentDescriptor = photoIdToContentDescriptor;
+            this.originalIds = originalIds;
+            this.originalsWithDuplicates = new HashSet<>(originalIds.values());
+            this.run = run;
+            this.executor = executor;
+        }
+
+        /**
+         * Announces the number of photos which will be submitted, so the progress reporting can estimate the time remaining.
+         */
+        public void expect(long photoCount) {
+            PHOTOS.expect(photoCount);
+        }
+
+        /**
+         * @param destinations The paths of the photo in all its Albums, as named in each Album
+         */
+        public void submit(PhotoDescriptor photo, List<Path> destinations) {
+            ContentDescriptor contentDescriptor = photoIdToContentDescriptor.get(photo.getId());
+            if (contentDescriptor == null) {
+                // Probably a photo we already moved...
+                LOG.debug("No source for {}-{}", photo.getId(), photo.getName());
+                PHOTOS.increment();
+            } else if (originalIds.containsKey(photo.getId())) {
+                LOG.debug("Placing {}-{} from {}, as it duplicates the content of that earlier upload", photo.getId(), photo.getName(), originalIds.get(photo.getId()));
+                duplicates.put(photo, destinations);
+                PHOTOS.increment();
+            } else {
+                if (originalsWithDuplicates.contains(photo.getId())) {
+                    placedOriginals.put(photo.getId(), destinations.get(0));
+                }
+                sourceFolders.add(contentDescriptor.getPath().getParent());
+                executeOnWorker(() -> transferPhoto(photo, destinations, contentDescriptor, run));
+            }
+        }
+
+        /**
+         * Submits the planned transfers of a single photo. The folders of their destinations are created as needed.
+         */
+        public void submit(List<TransferPlan.Operation> operations) {
+            for (TransferPlan.Operation operation : operations) {
+                Path destinationFolder = operation.getDestination().getParent();
+                if (destinationFolders.add(destinationFolder)) {
+                    try {
+                        Files.createDirectories(destinationFolder);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to create directory structure for "+destinationFolder, e);
+                    }
+                }
+            }
+            sourceFolders.add(operations.get(0).getSource().getParent());
+            executeOnWorker(() -> execute(operations, run));
+        }
+
+        private void executeOnWorker(Runnable transfer) {
+            if (executor.isShutdown()) {
+                // Stopped, in which case the executor would silently discard it
+                run.stats.cancelled();
+                PHOTOS.increment();
+                return;
+            }
+            executor.execute(() -> {
+                try {
+                    transfer.run();
+                } finally {
+                    PHOTOS.increment();
+                }
+            });
+        }
+
+        public boolean isStopRequested() {
+            return stopRequested;
+        }
+
+        /**
+         * Waits for the submitted transfers to complete.
+         */
+        public TransferStats finish() {
+            executor.shutdown();
+            try {
+                awaitTermination(executor);
+                placeDuplicates();
+                run.close();
+            } finally {
+                sessions.remove(this);
+            }
+            MetricsRegistry.global().remove("transfer.queue");
+            // The sources were moved, so the listings of their folders are no longer accurate
+            sourceFolders.forEach(directoryIndex::invalidate);
+
+            LOG.info("Transfer {}: {}", stopRequested ? "stopped" : "completed", run.stats);
+            return run.stats;
+        }
+
+        /**
+         * Places the duplicates from their originals, which are all in place by now. They are usually few, so they
+         * are placed on the calling thread.
+         */
+        private void placeDuplicates() {
+            duplicates.forEach((photo, destinations) -> {
+                Path placedOriginal = placedOriginals.get(originalIds.get(photo.getId()));
+                ContentDescriptor contentDescriptor = photoIdToContentDescriptor.get(photo.getId());
+                if (placedOriginal == null) {
+                    // Its original is in no Album of this run, so we keep the photo itself
+                    LOG.warn("The original of {}-{} was not transferred, so transferring its own content", photo.getId(), photo.getName());
+                    sourceFolders.add(contentDescriptor.getPath().getParent());
+                    transferPhoto(photo, destinations, contentDescriptor, run);
+                    return;
+                }
+                run.stats.duplicate();
+                List<TransferPlan.Operation> operations = new ArrayList<>(destinations.size());
+                try {
+                    long size = size(contentDescriptor);
+                    for (Path destination : destinations) {
+                        operations.add(new TransferPlan.Operation(photo.getId(), duplicateTransfer, size, placedOriginal, destination));
+                    }
+                } catch (IOException e) {
+                    LOG.error("Failed to transfer {}", contentDescriptor.getPath(), e);
+                    run.stats.failed(contentDescriptor.getPath(), e);
+                    return;
+                }
+                execute(operations, run);
+            });
+        }
+    }
+
+    /**
+     * State of a single transfer run, shared by all workers.
+     */
+    private static class TransferRun {
+        private final TransferStats stats = new TransferStats();
+        private final DestinationIndex destinationIndex = new DestinationIndex();
+        private final TransferJournal journal;
+        private final DigestManifest manifest;
+
+        private TransferRun(TransferJournal journal, DigestManifest manifest) {
+            this.journal = journal;
+            this.manifest = manifest;
+        }
+
+        private void close() {
+            stats.finished();
+            closeQuietly(journal);
+            closeQuietly(manifest);
+        }
+
+        private void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    LOG.warn("Failed to close {}", closeable, e);
+                }
+            }
+        }
+    }
+}
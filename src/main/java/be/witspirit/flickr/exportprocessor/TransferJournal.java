@@ -0,0 +1,134 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the planned and completed transfers. Replaying the journal of an interrupted run tells us
+ * which destinations were completed, without having to check the file system for them.
+ * Records are synced to disk in batches, so a crash loses at most a batch of completions, which then simply get
+ * verified against the file system again.
+ */
+public class TransferJournal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TransferJournal.class);
+
+    private static final char PLANNED = 'P';
+    private static final char COMPLETED = 'C';
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path journalPath;
+    private final int syncBatchSize;
+    private final Set<String> completedDestinations;
+    private final FileChannel channel;
+    private final Writer writer;
+
+    private int unsyncedRecords;
+    private long lastSync = System.nanoTime();
+
+    private TransferJournal(Path journalPath, int syncBatchSize, Set<String> completedDestinations, long completeLength) throws IOException {
+        this.journalPath = journalPath;
+        this.syncBatchSize = syncBatchSize;
+        this.completedDestinations = completedDestinations;
+        this.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Otherwise, the first record we append would continue the partial one
+        if (channel.size() > completeLength) {
+            LOG.warn("Dropping the partially written last record of transfer journal {}", journalPath);
+            channel.truncate(completeLength);
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    public static TransferJournal open(Path journalPath, int syncBatchSize) {
+        try {
+            byte[] journal = Files.exists(journalPath) ? Files.readAllBytes(journalPath) : new byte[0];
+            // A record without line ending was only partially written when we were interrupted, so we ignore it
+            int completeLength = journal.length;
+            while (completeLength > 0 && journal[completeLength - 1] != '\n') {
+                completeLength--;
+            }
+            Set<String> completedDestinations = replay(journalPath, journal, completeLength);
+            return new TransferJournal(journalPath, syncBatchSize, completedDestinations, completeLength);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open transfer journal "+journalPath, e);
+        }
+    }
+
+    /**
+     * Replays the complete records. As a line feed never occurs within a multi-byte character, they hold whole
+     * characters only. Should a record still not be valid UTF-8, it is decoded leniently rather than failing the replay.
+     */
+    private static Set<String> replay(Path journalPath, byte[] journalBytes, int completeLength) {
+        Set<String> completedDestinations = new HashSet<>();
+        if (completeLength == 0) {
+            return completedDestinations;
+        }
+
+        String journal = new String(journalBytes, 0, completeLength, StandardCharsets.UTF_8);
+        int end = journal.lastIndexOf('\n');
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = journal.indexOf('\n', lineStart);
+            if (journal.charAt(lineStart) == COMPLETED) {
+                completedDestinations.add(journal.substring(lineStart + 2, lineEnd));
+            }
+            lineStart = lineEnd + 1;
+        }
+        LOG.info("Replayed transfer journal {}: {} completed transfers", journalPath, completedDestinations.size());
+        return completedDestinations;
+    }
+
+    public boolean isCompleted(Path destination) {
+        return completedDestinations.contains(destination.toString());
+    }
+
+    public synchronized void planned(Path source, Path destination) {
+        append(PLANNED + "\t" + destination + "\t" + source + "\n");
+    }
+
+    public synchronized void completed(Path destination) {
+        append(COMPLETED + "\t" + destination + "\n");
+    }
+
+    private void append(String record) {
+        try {
+            writer.write(record);
+            unsyncedRecords++;
+            if (unsyncedRecords >= syncBatchSize || System.nanoTime() - lastSync > SYNC_INTERVAL_NANOS) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to transfer journal "+journalPath, e);
+        }
+    }
+
+    public synchronized void sync() throws IOException {
+        writer.flush();
+        channel.force(false);
+        unsyncedRecords = 0;
+        lastSync = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.index.LongObjectMap;
+import be.witspirit.flickr.exportprocessor.index.LongSet;
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+import be.witspirit.flickr.exportprocessor.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs scan -> parse -> structure -> transfer as a pipeline, rather than as consecutive phases, so the transfers start
+ * while the metadata is still being parsed.
+ * The photo metadata is parsed in Album order. An Album is structured as soon as all its photos are parsed, and a photo
+ * is transferred as soon as all Albums it appears in are structured. The structured Albums are handed to the transfers
+ * through a bounded queue, which stalls the parsing whenever the transfers fall behind. That way, only the photos in
+ * flight are retained, whatever the size of the export.
+ */
+@Service
+public class TransferPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(TransferPipeline.class);
+    private static final Counter ALBUMS_STRUCTURED = MetricsRegistry.global().counter(StructuringService.ALBUMS_METRIC);
+    private static final Counter PHOTOS_STRUCTURED = MetricsRegistry.global().counter(StructuringService.PHOTOS_METRIC);
+    private static final Timer STRUCTURE_TIME = MetricsRegistry.global().timer(StructuringService.ALBUM_TIME_METRIC);
+
+    // Marks the end of the parsing. Compared by identity.
+    private static final List<ReadyPhoto> END = new ArrayList<>();
+
+    private final MetadataService metadataService;
+    private final ContentService contentService;
+    private final StructuringService structuringService;
+    private final TransferEngine transferEngine;
+    private final Shard shard;
+    private final int queueSize;
+    private final int uncategorizedBatchSize;
+
+    public TransferPipeline(MetadataService metadataService,
+                            ContentService contentService,
+                            StructuringService structuringService,
+                            TransferEngine transferEngine,
+                            Shard shard,
+                            @Value("${pipeline.queue-size}") int queueSize,
+                            @Value("${pipeline.uncategorized-batch-size}") int uncategorizedBatchSize) {
+        this.metadataService = metadataService;
+        this.contentService = contentService;
+        this.structuringService = structuringService;
+        this.transferEngine = transferEngine;
+        this.shard = shard;
+        this.queueSize = queueSize;
+        this.uncategorizedBatchSize = uncategorizedBatchSize;
+    }
+
+    public TransferStats run() {
+        // The content is independent of the metadata, so it is scanned while the parsing starts
+        CompletableFuture<Map<String, ContentDescriptor>> content = CompletableFuture.supplyAsync(contentService::loadDescriptors);
+
+        Run run = new Run(metadataService.loadAlbums(), new ArrayList<>(metadataService.photoMetadataEntries().keySet()));
+        Thread parser = new Thread(run::parse, "pipeline-parse");
+        parser.start();
+        try {
+            return run.transfer(content);
+        } finally {
+            // Releases the parsing, in case the transfers stopped early
+            run.aborted = true;
+            join(parser);
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for "+thread.getName()+" to stop", e);
+        }
+    }
+
+    /**
+     * State of a single pipeline run, shared by the parsing and transfer stages.
+     */
+    private class Run {
+        private final List<PlannedAlbum> plannedAlbums = new ArrayList<>();
+        // For every photo, the indexes of the planned Albums it appears in, in ascending order
+        private final LongObjectMap<int[]> appearances;
+        private final List<String> parseOrder;
+        private int ownPhotoCount;
+        private final Map<String, PendingPhoto> pendingPhotos = new ConcurrentHashMap<>();
+        private final BlockingQueue<List<ReadyPhoto>> readyPhotos = new ArrayBlockingQueue<>(queueSize);
+        private volatile boolean aborted;
+        private volatile RuntimeException parseFailure;
+
+        private Run(List<Album> albums, List<String> photoMetaIds) {
+            appearances = new LongObjectMap<>(photoMetaIds.size());
+            parseOrder = new ArrayList<>(photoMetaIds.size());
+            LongSet withMetadata = new LongSet(photoMetaIds.size());
+            for (String photoId : photoMetaIds) {
+                withMetadata.add(Long.parseLong(photoId));
+            }
+
+            LongSet planned = new LongSet(photoMetaIds.size());
+            LongSet categorized = new LongSet(photoMetaIds.size());
+            for (Album album : albums) {
+                for (String photoId : album.getPhotoIds()) {
+                    categorized.add(Long.parseLong(photoId));
+                }
+                // When sharded, the Albums without any photo of this shard are left to the other shards. The photos of
+                // the other shards in the remaining Albums are only parsed for their date, which determines the folder.
+                if (!shard.isAll() && album.getPhotoIds().stream().noneMatch(shard::contains)) {
+                    continue;
+                }
+                int albumIndex = plannedAlbums.size();
+                int pending = 0;
+                for (String photoId : album.getPhotoIds()) {
+                    long numericPhotoId = Long.parseLong(photoId);
+                    if (withMetadata.contains(numericPhotoId)) {
+                        appear(numericPhotoId, albumIndex);
+                        pending++;
+                        if (planned.add(numericPhotoId)) {
+                            parseOrder.add(photoId);
+                            if (shard.contains(photoId)) {
+                                ownPhotoCount++;
+                            }
+                        }
+                    }
+                }
+                plannedAlbums.add(new PlannedAlbum(album, album.getId(), album.getTitle(), album.getPhotoIds(), 0, pending));
+            }
+
+            // The photos which are not in an Album all go into the same folder, so we can structure them in batches
+            List<String> uncategorized = new ArrayList<>();
+            for (String photoId : photoMetaIds) {
+                if (!categorized.contains(Long.parseLong(photoId)) && shard.contains(photoId)) {
+                    uncategorized.add(photoId);
+                }
+            }
+            // In the order of the other ways to structure them, as an unnamed photo gets its name from its position
+            uncategorized.sort(Comparator.comparingLong(Long::parseLong));
+            for (int batchStart = 0; batchStart < uncategorized.size(); batchStart += uncategorizedBatchSize) {
+                List<String> batch = uncategorized.subList(batchStart, Math.min(uncategorized.size(), batchStart + uncategorizedBatchSize));
+                int albumIndex = plannedAlbums.size();
+                for (String photoId : batch) {
+                    appear(Long.parseLong(photoId), albumIndex);
+                }
+                parseOrder.addAll(batch);
+                ownPhotoCount += batch.size();
+                plannedAlbums.add(new PlannedAlbum(null, StructuringService.UNCATEGORIZED_ID, StructuringService.UNCATEGORIZED_NAME, batch, batchStart, batch.size()));
+            }
+        }
+
+        private void appear(long photoId, int albumIndex) {
+            int[] photoAppearances = appearances.get(photoId);
+            if (photoAppearances == null) {
+                appearances.put(photoId, new int[] {albumIndex});
+            } else {
+                int[] grown = Arrays.copyOf(photoAppearances, photoAppearances.length + 1);
+                grown[photoAppearances.length] = albumIndex;
+                appearances.put(photoId, grown);
+            }
+        }
+
+        private void parse() {
+            try {
+                // Albums without any photo metadata are complete right away
+                for (int albumIndex = 0; albumIndex < plannedAlbums.size(); albumIndex++) {
+                    if (plannedAlbums.get(albumIndex).pending.get() == 0) {
+                        structure(albumIndex);
+                    }
+                }
+                metadataService.streamPhotoMetadata(parseOrder, this::parsed);
+            } catch (RuntimeException e) {
+                parseFailure = e;
+            } finally {
+                handOff(END);
+            }
+        }
+
+        private boolean parsed(String photoId, PhotoMeta photoMeta) {
+            int[] photoAppearances = appearances.get(Long.parseLong(photoId));
+            if (photoMeta != null) {
+                try {
+                    pendingPhotos.put(photoId, new PendingPhoto(photoId, structuringService.toPhotoDescriptor(photoMeta), photoAppearances));
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to describe photo {}", photoId, e);
+                }
+            }
+            for (int albumIndex : photoAppearances) {
+                if (plannedAlbums.get(albumIndex).pending.decrementAndGet() == 0) {
+                    structure(albumIndex);
+                }
+            }
+            return !aborted;
+        }
+
+        private void structure(int albumIndex) {
+            long start = System.nanoTime();
+            PlannedAlbum planned = plannedAlbums.get(albumIndex);
+            List<PhotoDescriptor> photos = new ArrayList<>(planned.photoIds.size());
+            List<PendingPhoto> albumPhotos = new ArrayList<>(planned.photoIds.size());
+            for (String photoId : planned.photoIds) {
+                PendingPhoto pendingPhoto = pendingPhotos.get(photoId);
+                if (pendingPhoto == null) {
+                    LOG.warn("No PhotoDescriptor found for PhotoId {} in Album {}", photoId, planned.name);
+                } else {
+                    photos.add(pendingPhoto.photo);
+                    albumPhotos.add(pendingPhoto);
+                }
+            }
+
+            Path albumPath = planned.album == null
+                    ? structuringService.getUncategorizedAlbumPath()
+                    : structuringService.deriveAlbumPath(planned.album, photos);
+            for (int i = 0; i < photos.size(); i++) {
+                PhotoDescriptor photo = photos.get(i);
+                if (!StringUtils.hasText(photo.getName())) {
+                    photos.set(i, StructuringService.withName(photo, StructuringService.derivePhotoName(planned.name, planned.nameOffset + i)));
+                }
+            }
+            AlbumDescriptor album = new AlbumDescriptor(planned.id, planned.name, photos, albumPath);
+            transferEngine.createAlbumFolder(album);
+            STRUCTURE_TIME.recordSince(start);
+            ALBUMS_STRUCTURED.increment();
+            PHOTOS_STRUCTURED.add(photos.size());
+
+            List<ReadyPhoto> ready = new ArrayList<>();
+            for (int i = 0; i < albumPhotos.size(); i++) {
+                PendingPhoto pendingPhoto = albumPhotos.get(i);
+                if (pendingPhoto.structured(albumIndex, album, photos.get(i))) {
+                    pendingPhotos.remove(pendingPhoto.photoId);
+                    if (shard.contains(pendingPhoto.photoId)) {
+                        ready.add(pendingPhoto.ready());
+                    }
+                }
+            }
+            if (!ready.isEmpty()) {
+                handOff(ready);
+            }
+        }
+
+        private void handOff(List<ReadyPhoto> ready) {
+            try {
+                while (!aborted && !readyPhotos.offer(ready, 100, TimeUnit.MILLISECONDS)) {
+                    // The transfers are behind, so the parsing has to wait
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                aborted = true;
+            }
+        }
+
+        private TransferStats transfer(CompletableFuture<Map<String, ContentDescriptor>> content) {
+            TransferEngine.Session session = transferEngine.start(content.join());
+            session.expect(ownPhotoCount);
+            MetricsRegistry.global().gauge("pipeline.queue", readyPhotos::size);
+            MetricsRegistry.global().gauge("pipeline.pending", pendingPhotos::size);
+            TransferStats stats;
+            try {
+                List<ReadyPhoto> ready;
+                while ((ready = readyPhotos.take()) != END && !session.isStopRequested()) {
+                    for (ReadyPhoto photo : ready) {
+                        session.submit(photo.photo, photo.destinations);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for photos to transfer", e);
+            } finally {
+                aborted = true;
+                stats = session.finish();
+                MetricsRegistry.global().remove("pipeline.queue");
+                MetricsRegistry.global().remove("pipeline.pending");
+            }
+
+            if (parseFailure != null) {
+                throw new RuntimeException("Failed to parse the photo metadata", parseFailure);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * An Album, or a batch of uncategorized photos, waiting for the metadata of its photos.
+     */
+    private static class PlannedAlbum {
+        private final Album album; // null for the uncategorized photos
+        private final String id;
+        private final String name;
+        private final List<String> photoIds;
+        private final int nameOffset;
+        private final AtomicInteger pending;
+
+        private PlannedAlbum(Album album, String id, String name, List<String> photoIds, int nameOffset, int pending) {
+            this.album = album;
+            this.id = id;
+            this.name = name;
+            this.photoIds = photoIds;
+            this.nameOffset = nameOffset;
+            this.pending = new AtomicInteger(pending);
+        }
+    }
+
+    /**
+     * A parsed photo, waiting for the Albums it appears in to be structured.
+     */
+    private static class PendingPhoto {
+        private final String photoId;
+        private final PhotoDescriptor photo;
+        private final int[] appearances;
+        // In every Album, named as in that Album
+        private final Path[] destinations;
+        private PhotoDescriptor firstAlbumPhoto;
+        private int structuredCount;
+
+        private PendingPhoto(String photoId, PhotoDescriptor photo, int[] appearances) {
+            this.photoId = photoId;
+            this.photo = photo;
+            this.appearances = appearances;
+            this.destinations = new Path[appearances.length];
+        }
+
+        /**
+         * @return Whether all Albums of the photo are structured now
+         */
+        private synchronized boolean structured(int albumIndex, AlbumDescriptor album, PhotoDescriptor albumPhoto) {
+            for (int i = 0; i < appearances.length; i++) {
+                if (appearances[i] == albumIndex && destinations[i] == null) {
+                    destinations[i] = album.getAlbumPath().resolve(albumPhoto.getDestinationFileName());
+                    if (i == 0) {
+                        firstAlbumPhoto = albumPhoto;
+                    }
+                    break;
+                }
+            }
+            return ++structuredCount == appearances.length;
+        }
+
+        private synchronized ReadyPhoto ready() {
+            return new ReadyPhoto(firstAlbumPhoto, List.of(destinations));
+        }
+    }
+
+    private static class ReadyPhoto {
+        private final PhotoDescriptor photo;
+        private final List<Path> destinations;
+
+        private ReadyPhoto(PhotoDescriptor photo, List<Path> destinations) {
+            this.photo = photo;
+            this.destinations = destinations;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Line delimited file with all transfer operations of a run, so the run can be applied, again and again, without
+ * parsing any metadata. Every line holds a single operation: photo id, transfer, size, source and destination,
+ * separated by tabs. The operations of a photo are on consecutive lines, in the order in which they have to be executed.
+ * Sources inside a content archive are written as their jar: URI.
+ */
+public class TransferPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(TransferPlan.class);
+
+    private static final String HEADER = "# Flickr export transfer plan v1";
+    private static final char SEPARATOR = '\t';
+
+    public static Writer write(Path planPath) {
+        try {
+            return new Writer(planPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create transfer plan "+planPath, e);
+        }
+    }
+
+    public static Reader read(Path planPath) {
+        try {
+            return new Reader(planPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open transfer plan "+planPath, e);
+        }
+    }
+
+    private static String format(Path path) {
+        String formatted = path.getFileSystem() == FileSystems.getDefault() ? path.toString() : path.toUri().toString();
+        if (formatted.indexOf(SEPARATOR) >= 0 || formatted.indexOf('\n') >= 0 || formatted.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Path "+formatted+" can't be written to a line delimited plan");
+        }
+        return formatted;
+    }
+
+    /**
+     * A single transfer of a photo.
+     */
+    public static class Operation {
+        private final String photoId;
+        private final Transfer transfer;
+        private final long size;
+        private final Path source;
+        private final Path destination;
+
+        public Operation(String photoId, Transfer transfer, long size, Path source, Path destination) {
+            this.photoId = photoId;
+            this.transfer = transfer;
+            this.size = size;
+            this.source = source;
+            this.destination = destination;
+        }
+
+        public String getPhotoId() {
+            return photoId;
+        }
+
+        public Transfer getTransfer() {
+            return transfer;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getDestination() {
+            return destination;
+        }
+
+        @Override
+        public String toString() {
+            return transfer + " " + source + " -> " + destination;
+        }
+    }
+
+    /**
+     * Writes the plan to a temporary file, which only replaces the plan once it is committed.
+     */
+    public static class Writer implements Closeable {
+        private final Path planPath;
+        private final Path tempPath;
+        private final BufferedWriter writer;
+        private long operationCount;
+        private boolean committed;
+
+        private Writer(Path planPath) throws IOException {
+            this.planPath = planPath;
+            this.tempPath = planPath.resolveSibling(planPath.getFileName() + ".tmp");
+            this.writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8);
+            writer.write(HEADER);
+            writer.newLine();
+        }
+
+        /**
+         * Writes the operations of a single photo.
+         */
+        public void write(List<Operation> operations) {
+            try {
+                for (Operation operation : operations) {
+                    writer.write(operation.getPhotoId());
+                    writer.write(SEPARATOR);
+                    writer.write(operation.getTransfer().name());
+                    writer.write(SEPARATOR);
+                    writer.write(Long.toString(operation.getSize()));
+                    writer.write(SEPARATOR);
+                    writer.write(format(operation.getSource()));
+                    writer.write(SEPARATOR);
+                    writer.write(format(operation.getDestination()));
+                    writer.newLine();
+                }
+                operationCount += operations.size();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write transfer plan "+tempPath, e);
+            }
+        }
+
+        public long getOperationCount() {
+            return operationCount;
+        }
+
+        /**
+         * Replaces the plan by the written one.
+         */
+        public void commit() throws IOException {
+            writer.close();
+            Files.move(tempPath, planPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            LOG.info("Wrote transfer plan {} with {} operations", planPath, operationCount);
+        }
+
+        /**
+         * Discards the written plan, unless it was committed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                writer.close();
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    /**
+     * Streams the plan, so only the operations of a single photo are held at a time. The content archives referred to
+     * by the plan are opened as needed, and remain open until the reader is closed.
+     */
+    public static class Reader implements Closeable {
+        private final Path planPath;
+        private final BufferedReader reader;
+        private final List<FileSystem> openedArchives = new ArrayList<>();
+
+        private Reader(Path planPath) throws IOException {
+            this.planPath = planPath;
+            this.reader = Files.newBufferedReader(planPath, StandardCharsets.UTF_8);
+            String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                reader.close();
+                throw new IOException(planPath+" is not a compatible transfer plan");
+            }
+        }
+
+        /**
+         * Hands the operations of every photo to the consumer, in plan order.
+         */
+        public void forEachPhoto(Consumer<List<Operation>> consumer) {
+            try {
+                List<Operation> photoOperations = new ArrayList<>();
+                String line;
+                int lineNumber = 1;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    Operation operation = parse(line, lineNumber);
+                    if (!photoOperations.isEmpty() && !photoOperations.get(0).getPhotoId().equals(operation.getPhotoId())) {
+                        consumer.accept(photoOperations);
+                        photoOperations = new ArrayList<>();
+                    }
+                    photoOperations.add(operation);
+                }
+                if (!photoOperations.isEmpty()) {
+                    consumer.accept(photoOperations);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read transfer plan "+planPath, e);
+            }
+        }
+
+        private Operation parse(String line, int lineNumber) throws IOException {
+            String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+            if (fields.length != 5) {
+                throw new IOException("Malformed operation at line "+lineNumber+" of transfer plan "+planPath);
+            }
+            return new Operation(fields[0], Transfer.valueOf(fields[1]), Long.parseLong(fields[2]), path(fields[3]), path(fields[4]));
+        }
+
+        private Path path(String formatted) throws IOException {
+            if (!formatted.startsWith("jar:")) {
+                return Path.of(formatted);
+            }
+            URI uri = URI.create(formatted);
+            try {
+                return Path.of(uri);
+            } catch (FileSystemNotFoundException e) {
+                String archiveUri = formatted.substring(0, formatted.indexOf("!/"));
+                FileSystem archive = FileSystems.newFileSystem(URI.create(archiveUri), Map.of());
+                openedArchives.add(archive);
+                return Path.of(uri);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+            for (FileSystem archive : openedArchives) {
+                archive.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.metrics.Counter;
+import be.witspirit.flickr.exportprocessor.metrics.MetricsRegistry;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a single transfer run. All counts are also added to the global metrics, which span the runs.
+ */
+public class TransferStats {
+    private static final Counter FILES = MetricsRegistry.global().counter("transfer.files");
+    private static final Counter BYTES = MetricsRegistry.global().counter("transfer.bytes");
+    private static final Counter SKIPPED = MetricsRegistry.global().counter("transfer.skipped");
+    private static final Counter CANCELLED = MetricsRegistry.global().counter("transfer.cancelled");
+    private static final Counter DUPLICATES = MetricsRegistry.global().counter("transfer.duplicates");
+    private static final Counter ERRORS = MetricsRegistry.global().counter("transfer.errors");
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    private final AtomicLong filesTransferred = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong filesCancelled = new AtomicLong();
+    private final AtomicLong filesDuplicate = new AtomicLong();
+    private final Map<Path, Exception> failures = new ConcurrentHashMap<>();
+
+    void transferred(long bytes) {
+        filesTransferred.incrementAndGet();
+        bytesTransferred.addAndGet(bytes);
+        FILES.increment();
+        BYTES.add(bytes);
+    }
+
+    void skipped() {
+        filesSkipped.incrementAndGet();
+        SKIPPED.increment();
+    }
+
+    void cancelled() {
+        filesCancelled.incrementAndGet();
+        CANCELLED.increment();
+    }
+
+    void duplicate() {
+        filesDuplicate.incrementAndGet();
+        DUPLICATES.increment();
+    }
+
+    void failed(Path source, Exception e) {
+        failures.put(source, e);
+        ERRORS.increment();
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+    }
+
+    public long getFilesTransferred() {
+        return filesTransferred.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * @return The number of files for which the destination was already present
+     */
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    /**
+     * @return The number of sources which were not processed, because the engine was stopped
+     */
+    public long getFilesCancelled() {
+        return filesCancelled.get();
+    }
+
+    /**
+     * @return The number of sources which were not transferred, as their content duplicates an earlier upload. Their
+     * Albums get the earlier upload instead.
+     */
+    public long getFilesDuplicate() {
+        return filesDuplicate.get();
+    }
+
+    public Map<Path, Exception> getFailures() {
+        return failures;
+    }
+
+    public Duration getDuration() {
+        return Duration.ofNanos((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos);
+    }
+
+    public double getFilesPerSecond() {
+        return filesTransferred.get() * 1000.0 / Math.max(1, getDuration().toMillis());
+    }
+
+    public double getMegabytesPerSecond() {
+        return bytesTransferred.get() / (1024.0 * 1024.0) * 1000.0 / Math.max(1, getDuration().toMillis());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files (%d MB) transferred in %d s (%.1f files/s, %.1f MB/s), %d skipped, %d duplicates, %d cancelled, %d failures",
+                getFilesTransferred(), getBytesTransferred() / (1024 * 1024), getDuration().toSeconds(), getFilesPerSecond(), getMegabytesPerSecond(),
+                getFilesSkipped(), getFilesDuplicate(), getFilesCancelled(), failures.size());
+    }
+}
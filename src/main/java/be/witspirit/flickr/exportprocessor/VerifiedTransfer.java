@@ -0,0 +1,105 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transfers of a single source, which record the digest of the content in the DigestManifest.
+ * Whenever bytes are copied, the digest is computed in the same pass. Renames and links don't copy any bytes, so they
+ * reuse the digest of an earlier copy of the same source, if any. A photo which is only moved within a file store is
+ * not read at all, so it gets no digest in the manifest.
+ * Destinations which are already present are confirmed against their recorded digest, rather than on size alone.
+ */
+class VerifiedTransfer {
+    private static final Logger LOG = LoggerFactory.getLogger(VerifiedTransfer.class);
+
+    private static final Map<Path, FileStore> FILE_STORES = new ConcurrentHashMap<>();
+
+    private final DigestManifest manifest;
+    private final Path source;
+    private final long sourceSize;
+
+    private String sourceDigest;
+
+    VerifiedTransfer(DigestManifest manifest, Path source, long sourceSize) {
+        this.manifest = manifest;
+        this.source = source;
+        this.sourceSize = sourceSize;
+    }
+
+    /**
+     * @return A VerifiedTransfer of a copy of this source, which reuses the digest computed while making that copy
+     */
+    VerifiedTransfer continueFrom(Path copy) {
+        VerifiedTransfer verifiedTransfer = new VerifiedTransfer(manifest, copy, sourceSize);
+        verifiedTransfer.sourceDigest = sourceDigest;
+        return verifiedTransfer;
+    }
+
+    /**
+     * @return true if the file was transferred, false if the destination was already present
+     */
+    boolean transfer(Transfer transfer, Path destination, DestinationIndex destinationIndex) throws IOException {
+        OptionalLong destinationSize = destinationIndex.size(destination);
+        if (destinationSize.isPresent()) {
+            confirm(destination, destinationSize.getAsLong());
+            LOG.debug("Destination {} already exists and is confirmed. Skipping...", destination);
+            return false;
+        }
+
+        if (transfer == Transfer.COPY || (transfer == Transfer.MOVE && !onSameFileStore(source, destination))) {
+            String digest = ContentDigest.copy(source, destination);
+            if (sourceDigest != null && !sourceDigest.equals(digest)) {
+                throw new IOException("Content of "+source+" changed while transferring it to "+destination);
+            }
+            sourceDigest = digest;
+            if (transfer == Transfer.MOVE) {
+                Files.delete(source);
+            }
+            LOG.debug("Verified {} {} -> {} ({})", transfer, source, destination, digest);
+        } else {
+            transfer.transfer(source, sourceSize, destination, destinationIndex);
+        }
+        destinationIndex.recordWritten(destination, sourceSize);
+
+        if (sourceDigest != null) {
+            manifest.record(destination, sourceDigest);
+        }
+        return true;
+    }
+
+    private void confirm(Path destination, long destinationSize) throws IOException {
+        String recordedDigest = manifest.digest(destination);
+        if (destinationSize != sourceSize || (recordedDigest != null && !recordedDigest.equals(sourceDigest()))) {
+            throw new RuntimeException("Destination "+destination+" already present, but different from "+source);
+        }
+    }
+
+    private String sourceDigest() throws IOException {
+        if (sourceDigest == null) {
+            sourceDigest = ContentDigest.of(source);
+        }
+        return sourceDigest;
+    }
+
+    private static boolean onSameFileStore(Path source, Path destination) throws IOException {
+        return fileStore(source.getParent()).equals(fileStore(destination.getParent()));
+    }
+
+    private static FileStore fileStore(Path directory) throws IOException {
+        FileStore fileStore = FILE_STORES.get(directory);
+        if (fileStore == null) {
+            fileStore = Files.getFileStore(directory);
+            FILE_STORES.put(directory, fileStore);
+        }
+        return fileStore;
+    }
+}
@@ -0,0 +1,118 @@
+package be.witspirit.flickr.exportprocessor.index;
+
+import java.util.Objects;
+
+/**
+ * Open addressing map from a primitive long to an object, for indexing photos by their numeric Flickr id without
+ * boxing the keys or allocating an entry per mapping. Null values are not supported, as an empty slot is represented
+ * by a null value.
+ */
+public class LongObjectMap<V> {
+    private static final int MAX_FILL_PERCENTAGE = 60;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(LongSet.tableSize(expectedSize, MAX_FILL_PERCENTAGE));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) ((long) capacity * MAX_FILL_PERCENTAGE / 100);
+    }
+
+    /**
+     * @return The value previously mapped to the key, or null if there was none
+     */
+    public V put(long key, V value) {
+        Objects.requireNonNull(value, "LongObjectMap does not support null values");
+        int slot = LongSet.slot(key, mask);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                V previous = valueAt(slot);
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    public V get(long key) {
+        int slot = LongSet.slot(key, mask);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return valueAt(slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public LongSet keySet() {
+        LongSet keySet = new LongSet(size);
+        forEach((key, value) -> keySet.add(key));
+        return keySet;
+    }
+
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                consumer.accept(keys[slot], valueAt(slot));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int oldSlot = 0; oldSlot < oldValues.length; oldSlot++) {
+            if (oldValues[oldSlot] != null) {
+                int slot = LongSet.slot(oldKeys[oldSlot], mask);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[oldSlot];
+                values[slot] = oldValues[oldSlot];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+}
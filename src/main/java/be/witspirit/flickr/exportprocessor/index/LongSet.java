@@ -0,0 +1,143 @@
+package be.witspirit.flickr.exportprocessor.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing set of primitive longs, for the sets of numeric Flickr photo ids.
+ */
+public class LongSet {
+    private static final int MAX_FILL_PERCENTAGE = 60;
+    private static final long EMPTY = 0; // 0 itself is tracked separately
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+    private boolean containsEmpty;
+
+    public LongSet() {
+        this(16);
+    }
+
+    public LongSet(int expectedSize) {
+        allocate(tableSize(expectedSize, MAX_FILL_PERCENTAGE));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) ((long) capacity * MAX_FILL_PERCENTAGE / 100);
+    }
+
+    /**
+     * @return true if the value was not yet present
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int slot = slot(value, mask);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int slot = slot(value, mask);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        if (containsEmpty) {
+            consumer.accept(EMPTY);
+        }
+        for (long key : keys) {
+            if (key != EMPTY) {
+                consumer.accept(key);
+            }
+        }
+    }
+
+    /**
+     * @return A new set with the values of this set which are not in the other set
+     */
+    public LongSet without(LongSet other) {
+        LongSet difference = new LongSet(size);
+        forEach(value -> {
+            if (!other.contains(value)) {
+                difference.add(value);
+            }
+        });
+        return difference;
+    }
+
+    /**
+     * @return The values, in ascending order
+     */
+    public long[] toSortedArray() {
+        long[] values = new long[size];
+        int[] index = {0};
+        forEach(value -> values[index[0]++] = value);
+        Arrays.sort(values);
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int slot = slot(key, mask);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    static int tableSize(int expectedSize, int maxFillPercentage) {
+        long required = Math.max(4, (long) expectedSize * 100 / maxFillPercentage + 1);
+        if (required > (1 << 30)) {
+            throw new IllegalArgumentException("Too many entries for a single table: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) required - 1) << 1;
+    }
+
+    static int slot(long key, int mask) {
+        // Photo ids are mostly sequential, so we scramble them to spread them over the table
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,53 @@
+package be.witspirit.flickr.exportprocessor.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns an int reference to every distinct String, so repeated values are only held once. The lookup map is only
+ * needed while adding; once frozen, the pool is a plain array.
+ */
+public class StringPool {
+    public static final int NULL = -1;
+
+    private Map<String, Integer> refsByValue = new HashMap<>();
+    private String[] values = new String[256];
+    private int size;
+
+    public int add(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        if (refsByValue == null) {
+            throw new IllegalStateException("StringPool is frozen");
+        }
+        Integer ref = refsByValue.get(value);
+        if (ref != null) {
+            return ref;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        refsByValue.put(value, size);
+        return size++;
+    }
+
+    public String get(int ref) {
+        return ref == NULL ? null : values[ref];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops the lookup map and trims the values. No more values can be added afterwards.
+     */
+    public StringPool freeze() {
+        refsByValue = null;
+        values = Arrays.copyOf(values, size);
+        return this;
+    }
+}
@@ -19,6 +19,19 @@ public class Album {
     @JsonProperty("photos")
     private List<String> photoIds = new ArrayList<>();
 
+    public Album() {
+    }
+
+    public Album(String id, String title, String description, String photoCount, String created, String lastUpdated, List<String> photoIds) {
+        this.id = id;
+        this.title = title;
+        this.description = description;
+        this.photoCount = photoCount;
+        this.created = created;
+        this.lastUpdated = lastUpdated;
+        this.photoIds = photoIds;
+    }
+
     public String getPhotoCount() {
         return photoCount;
     }
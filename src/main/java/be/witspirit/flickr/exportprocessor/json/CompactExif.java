@@ -0,0 +1,279 @@
+package be.witspirit.flickr.exportprocessor.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+
+/**
+ * Compact form of the EXIF of a single photo. Per field, it only holds a few symbol ids and value handles into the
+ * {@link ExifStore} it shares with the other photos of the same load. Values are decoded when requested.
+ */
+public class CompactExif {
+    public static final CompactExif EMPTY = new CompactExif(new ExifStore(), new int[0], new long[0]);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final DateTimeFormatter EXIF_DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    // Per field: the symbols of the field name, full name and label
+    private final int[] symbols;
+    // Per field: the handles of the display value and the raw value (the same handle if they are equal)
+    private final long[] values;
+
+    private final ExifStore store;
+
+    private CompactExif(ExifStore store, int[] symbols, long[] values) {
+        this.store = store;
+        this.symbols = symbols;
+        this.values = values;
+    }
+
+    /**
+     * Reads the exif object the parser is positioned at. An empty exif is exported as an empty array, which yields EMPTY.
+     */
+    static CompactExif read(JsonParser parser, ExifStore store) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return EMPTY;
+        }
+        Builder builder = new Builder(store);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                String full = null;
+                String label = null;
+                String value = null;
+                String rawValue = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String property = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (property) {
+                        case "full":
+                            full = parser.getValueAsString();
+                            break;
+                        case "label":
+                            label = parser.getValueAsString();
+                            break;
+                        case "value":
+                            value = parser.getValueAsString();
+                            break;
+                        case "raw_value":
+                            rawValue = parser.getValueAsString();
+                            break;
+                        default:
+                            parser.skipChildren();
+                    }
+                }
+                builder.add(field, full, label, value, rawValue);
+            } else if (token.isStructStart()) {
+                parser.skipChildren();
+            } else {
+                String value = parser.getValueAsString();
+                builder.add(field, null, null, value, value);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The exif in a store of its own
+     */
+    public static CompactExif parse(byte[] exifJson) {
+        return parse(exifJson, new ExifStore());
+    }
+
+    static CompactExif parse(byte[] exifJson, ExifStore store) {
+        if (exifJson == null) {
+            return EMPTY;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(exifJson)) {
+            parser.nextToken();
+            return read(parser, store);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode EXIF data", e);
+        }
+    }
+
+    /**
+     * @return The exif in a store of its own
+     */
+    public static CompactExif of(Map<String, ExifValue> exif) {
+        Builder builder = new Builder(new ExifStore());
+        exif.forEach((field, value) -> builder.add(field, value.getFull(), value.getLabel(), value.getValue(), value.getRawValue()));
+        return builder.build();
+    }
+
+    public int size() {
+        return values.length / 2;
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    public List<String> fieldNames() {
+        List<String> fieldNames = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            fieldNames.add(store.symbolName(symbols[i * 3]));
+        }
+        return fieldNames;
+    }
+
+    public boolean has(String field) {
+        return indexOf(field) >= 0;
+    }
+
+    /**
+     * @return The display value (e.g. with units or conversions applied)
+     */
+    public Optional<String> value(String field) {
+        int index = indexOf(field);
+        return index < 0 ? Optional.empty() : Optional.ofNullable(store.load(values[index * 2]));
+    }
+
+    /**
+     * @return The raw value (e.g. no fluff, numeric values)
+     */
+    public Optional<String> rawValue(String field) {
+        int index = indexOf(field);
+        return index < 0 ? Optional.empty() : Optional.ofNullable(store.load(values[index * 2 + 1]));
+    }
+
+    public Optional<String> make() {
+        return rawValue("Make");
+    }
+
+    public Optional<String> model() {
+        return rawValue("Model");
+    }
+
+    public Optional<LocalDateTime> dateTimeOriginal() {
+        return rawValue("DateTimeOriginal").flatMap(dateTime -> {
+            try {
+                return Optional.of(LocalDateTime.parse(dateTime.trim(), EXIF_DATE_TIME_FORMAT));
+            } catch (DateTimeParseException e) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    /**
+     * @return The exposure time in seconds, e.g. 0.004 for a raw value of 1/250
+     */
+    public OptionalDouble exposureTime() {
+        Optional<String> exposureTime = rawValue("ExposureTime");
+        if (exposureTime.isEmpty()) {
+            return OptionalDouble.empty();
+        }
+        String raw = exposureTime.get().trim();
+        try {
+            int slash = raw.indexOf('/');
+            if (slash < 0) {
+                return OptionalDouble.of(Double.parseDouble(raw));
+            }
+            return OptionalDouble.of(Double.parseDouble(raw.substring(0, slash)) / Double.parseDouble(raw.substring(slash + 1)));
+        } catch (NumberFormatException e) {
+            return OptionalDouble.empty();
+        }
+    }
+
+    /**
+     * @return All fields, decoded as ExifValues
+     */
+    public Map<String, ExifValue> toMap() {
+        Map<String, ExifValue> exif = new LinkedHashMap<>(size() * 2);
+        for (int i = 0; i < size(); i++) {
+            String full = store.symbolName(symbols[i * 3 + 1]);
+            String value = store.load(values[i * 2]);
+            ExifValue exifValue = full == null && values[i * 2] == values[i * 2 + 1]
+                    ? new ExifValue(value)
+                    : new ExifValue(full, store.symbolName(symbols[i * 3 + 2]), value, store.load(values[i * 2 + 1]));
+            exif.put(store.symbolName(symbols[i * 3]), exifValue);
+        }
+        return exif;
+    }
+
+    /**
+     * @return The fields as an exif JSON object, as found in the export
+     */
+    public byte[] toJson() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * size() + 2);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            for (int i = 0; i < size(); i++) {
+                generator.writeFieldName(store.symbolName(symbols[i * 3]));
+                String full = store.symbolName(symbols[i * 3 + 1]);
+                if (full == null && values[i * 2] == values[i * 2 + 1]) {
+                    generator.writeString(store.load(values[i * 2]));
+                } else {
+                    generator.writeStartObject();
+                    generator.writeStringField("full", full);
+                    generator.writeStringField("label", store.symbolName(symbols[i * 3 + 2]));
+                    generator.writeStringField("value", store.load(values[i * 2]));
+                    generator.writeStringField("raw_value", store.load(values[i * 2 + 1]));
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode EXIF data", e);
+        }
+        return out.toByteArray();
+    }
+
+    private int indexOf(String field) {
+        int symbol = store.existingSymbol(field);
+        if (symbol == ExifStore.NONE) {
+            return -1;
+        }
+        for (int i = 0; i < symbols.length; i += 3) {
+            if (symbols[i] == symbol) {
+                return i / 3;
+            }
+        }
+        return -1;
+    }
+
+    private static class Builder {
+        private final ExifStore store;
+        private int[] symbols = new int[3 * 16];
+        private long[] values = new long[2 * 16];
+        private int size;
+
+        private Builder(ExifStore store) {
+            this.store = store;
+        }
+
+        private void add(String field, String full, String label, String value, String rawValue) {
+            if (size * 3 == symbols.length) {
+                symbols = Arrays.copyOf(symbols, symbols.length * 2);
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            symbols[size * 3] = store.symbol(field);
+            symbols[size * 3 + 1] = store.symbol(full);
+            symbols[size * 3 + 2] = store.symbol(label);
+            long valueHandle = store.store(value);
+            values[size * 2] = valueHandle;
+            values[size * 2 + 1] = value != null && value.equals(rawValue) ? valueHandle : store.store(rawValue);
+            size++;
+        }
+
+        private CompactExif build() {
+            return size == 0 ? EMPTY : new CompactExif(store, Arrays.copyOf(symbols, size * 3), Arrays.copyOf(values, size * 2));
+        }
+    }
+}
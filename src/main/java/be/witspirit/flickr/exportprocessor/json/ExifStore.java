@@ -0,0 +1,114 @@
+package be.witspirit.flickr.exportprocessor.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage behind the {@link CompactExif}s of a single load, e.g. all photos read by one {@link PhotoMetaReader}. Field
+ * names (and the full names and labels of detailed values) repeat across all photos, so they are kept once in a symbol
+ * table. The values are appended to a chunked byte arena as UTF-8, and only decoded to a String when requested.
+ * The store is append only. Every CompactExif refers to its store, so the store is collected along with the last one.
+ */
+class ExifStore {
+    static final int NONE = -1;
+
+    // Chunks double in size up to the maximum, so a store for a few photos stays small
+    private static final int FIRST_CHUNK_SIZE = 1 << 12;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+
+    private final Map<String, Integer> symbolIds = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[256];
+    private int symbolCount;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] currentChunk;
+    private int currentChunkUsed;
+
+    int symbol(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer id = symbolIds.get(value);
+        return id != null ? id : registerSymbol(value);
+    }
+
+    /**
+     * @return The id of an already known symbol, or NONE, without registering the value
+     */
+    int existingSymbol(String value) {
+        Integer id = value == null ? null : symbolIds.get(value);
+        return id != null ? id : NONE;
+    }
+
+    private synchronized int registerSymbol(String value) {
+        Integer existingId = symbolIds.get(value);
+        if (existingId != null) {
+            return existingId;
+        }
+        String[] currentSymbols = symbols;
+        if (symbolCount == currentSymbols.length) {
+            currentSymbols = Arrays.copyOf(currentSymbols, symbolCount * 2);
+        }
+        int id = symbolCount++;
+        currentSymbols[id] = value;
+        symbols = currentSymbols;
+        symbolIds.put(value, id);
+        return id;
+    }
+
+    String symbolName(int id) {
+        return id == NONE ? null : symbols[id];
+    }
+
+    /**
+     * @return A handle to the stored value: the chunk in the upper and the offset in the lower 32 bits, or NONE for null
+     */
+    synchronized long store(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int required = bytes.length + 5; // Length as a varint, followed by the bytes
+        if (currentChunk == null || currentChunkUsed + required > currentChunk.length) {
+            int chunkSize = currentChunk == null ? FIRST_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, currentChunk.length * 2);
+            currentChunk = new byte[Math.max(chunkSize, required)];
+            currentChunkUsed = 0;
+            chunks.add(currentChunk);
+        }
+        long handle = ((long) (chunks.size() - 1) << 32) | currentChunkUsed;
+        int position = currentChunkUsed;
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            currentChunk[position++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        currentChunk[position++] = (byte) length;
+        System.arraycopy(bytes, 0, currentChunk, position, bytes.length);
+        currentChunkUsed = position + bytes.length;
+        return handle;
+    }
+
+    String load(long handle) {
+        if (handle == NONE) {
+            return null;
+        }
+        byte[] chunk;
+        synchronized (this) {
+            chunk = chunks.get((int) (handle >>> 32));
+        }
+        int position = (int) handle;
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk[position++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return new String(chunk, position, length, StandardCharsets.UTF_8);
+    }
+}
@@ -16,6 +16,22 @@ public class PhotoMeta {
 
     private List<Tag> tags = new ArrayList<>();
 
+    // Compact exif, as read by the PhotoMetaReader. Only decoded to ExifValues when the exif is requested.
+    private CompactExif compactExif;
+
+    public PhotoMeta() {
+    }
+
+    PhotoMeta(String id, String name, String description, String dateTaken, String original, List<Tag> tags, CompactExif compactExif) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.dateTaken = dateTaken;
+        this.original = original;
+        this.tags = tags;
+        this.exif = null;
+        this.compactExif = compactExif;
+    }
 
     public String getId() {
         return id;
@@ -37,7 +53,14 @@ public class PhotoMeta {
         return original;
     }
 
+    /**
+     * @return The exif, decoded anew on every call when read by the PhotoMetaReader. Prefer {@link #getCompactExif()}
+     * to look up a few fields.
+     */
     public Map<String, ExifValue> getExif() {
+        if (compactExif != null) {
+            return compactExif.toMap();
+        }
         if (exif == null) {
             return Collections.emptyMap(); // Special case, triggered by the EmptyArray as NullObject deserialization, which we require for exif
         }
@@ -47,4 +70,21 @@ public class PhotoMeta {
     public List<Tag> getTags() {
         return tags;
     }
+
+    /**
+     * @return The exif with typed accessors for the common fields, decoding values only when requested
+     */
+    public CompactExif getCompactExif() {
+        if (compactExif != null) {
+            return compactExif;
+        }
+        return exif == null ? CompactExif.EMPTY : CompactExif.of(exif);
+    }
+
+    /**
+     * @return The exif as JSON bytes (or null if not read by the PhotoMetaReader or no exif was present)
+     */
+    public byte[] getRawExif() {
+        return compactExif == null || compactExif.isEmpty() ? null : compactExif.toJson();
+    }
 }
@@ -0,0 +1,164 @@
+package be.witspirit.flickr.exportprocessor.json;
+
+import be.witspirit.flickr.exportprocessor.TagDictionary;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming alternative to data binding a {@link PhotoMeta}. Only the fields we actually use are extracted in a single
+ * pass. The exif subtree is read into a {@link CompactExif}, so its values are only decoded when they are requested.
+ * All exif read by a reader is kept in its own {@link ExifStore}, which lives as long as any of the photos read. So use
+ * a new reader for every load, rather than one for the life of the application.
+ */
+public class PhotoMetaReader {
+    private final JsonFactory jsonFactory;
+    private final ExifStore exifStore = new ExifStore();
+
+    public PhotoMetaReader(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public PhotoMeta read(Path photoMetadataPath) throws IOException {
+        return read(Files.readAllBytes(photoMetadataPath));
+    }
+
+    public PhotoMeta read(byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return read(parser);
+        }
+    }
+
+    /**
+     * Parses the metadata while it is being read, e.g. while it is inflated from an archive.
+     */
+    public PhotoMeta read(InputStream json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return read(parser);
+        }
+    }
+
+    /**
+     * Reads the metadata only up to the date the photo was taken and its original, for photos of which we need to know
+     * nothing more. That skips the tags, EXIF and comments, which follow them in the export. All other fields are only
+     * present if they precede those.
+     */
+    public PhotoMeta readDateTaken(Path photoMetadataPath) throws IOException {
+        try (InputStream json = Files.newInputStream(photoMetadataPath)) {
+            return readDateTaken(json);
+        }
+    }
+
+    public PhotoMeta readDateTaken(InputStream json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return read(parser, false);
+        }
+    }
+
+    private PhotoMeta read(JsonParser parser) throws IOException {
+        return read(parser, true);
+    }
+
+    private PhotoMeta read(JsonParser parser, boolean complete) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected Photo metadata to be a JSON object");
+        }
+
+        String id = null;
+        String name = null;
+        String description = null;
+        String dateTaken = null;
+        String original = null;
+        List<Tag> tags = new ArrayList<>();
+        CompactExif exif = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = readText(parser);
+                    break;
+                case "name":
+                    name = readText(parser);
+                    break;
+                case "description":
+                    description = readText(parser);
+                    break;
+                case "date_taken":
+                    dateTaken = readText(parser);
+                    break;
+                case "original":
+                    original = readText(parser);
+                    break;
+                case "tags":
+                    readTags(parser, tags);
+                    break;
+                case "exif":
+                    exif = CompactExif.read(parser, exifStore);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+            if (!complete && id != null && dateTaken != null && original != null) {
+                break;
+            }
+        }
+        return new PhotoMeta(id, name, description, dateTaken, original, tags, exif);
+    }
+
+    /**
+     * Recreates a PhotoMeta from previously extracted values, e.g. from a snapshot.
+     */
+    public PhotoMeta create(String id, String name, String description, String dateTaken, String original, List<String> tags, byte[] rawExif) {
+        List<Tag> photoTags = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            photoTags.add(new Tag(TagDictionary.global().intern(tag)));
+        }
+        return new PhotoMeta(id, name, description, dateTaken, original, photoTags, CompactExif.parse(rawExif, exifStore));
+    }
+
+    private String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
+
+    private void readTags(JsonParser parser, List<Tag> tags) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY && element != null) {
+            if (element != JsonToken.START_OBJECT) {
+                // Not a tag, like a plain string or null, which we skip, staying inside the array
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("tag".equals(field)) {
+                    String tag = readText(parser);
+                    if (tag != null) {
+                        tags.add(new Tag(TagDictionary.global().intern(tag)));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,13 @@ package be.witspirit.flickr.exportprocessor.json;
 public class Tag {
     private String tag;
 
+    public Tag() {
+    }
+
+    Tag(String tag) {
+        this.tag = tag;
+    }
+
     public String getTag() {
         return tag;
     }
@@ -0,0 +1,50 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing count, optionally with the count we expect to reach, which allows to estimate the remaining
+ * time.
+ */
+public class Counter implements Metric {
+    private final LongAdder count = new LongAdder();
+    private volatile long expected;
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    /**
+     * Announces that the count is expected to increase by the given amount of work.
+     */
+    public void expect(long remaining) {
+        expected = get() + remaining;
+    }
+
+    /**
+     * @return The count we expect to reach, or 0 if unknown
+     */
+    public long getExpected() {
+        return expected;
+    }
+
+    @Override
+    public Map<String, Number> values() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("", get());
+        if (expected > 0) {
+            values.put("expected", expected);
+        }
+        return values;
+    }
+}
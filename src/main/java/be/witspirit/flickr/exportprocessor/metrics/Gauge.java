@@ -0,0 +1,24 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Value which is sampled when reported, like the depth of a queue.
+ */
+public class Gauge implements Metric {
+    private final LongSupplier value;
+
+    public Gauge(LongSupplier value) {
+        this.value = value;
+    }
+
+    public long get() {
+        return value.getAsLong();
+    }
+
+    @Override
+    public Map<String, Number> values() {
+        return Map.of("", get());
+    }
+}
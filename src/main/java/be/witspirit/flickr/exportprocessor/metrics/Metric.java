@@ -0,0 +1,14 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import java.util.Map;
+
+/**
+ * A named measurement in the {@link MetricsRegistry}.
+ */
+public interface Metric {
+
+    /**
+     * @return The current values, by attribute. The main value of the metric has the empty attribute name.
+     */
+    Map<String, Number> values();
+}
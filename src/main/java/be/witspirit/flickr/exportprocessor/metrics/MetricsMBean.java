@@ -0,0 +1,82 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes every value of the registry as a read-only JMX attribute, named after the metric and its attribute, like
+ * "transfer.copy.p99Millis". As metrics are added while running, the attributes are determined on every request.
+ */
+public class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return All values of the registry, by attribute name
+     */
+    public Map<String, Number> attributes() {
+        Map<String, Number> attributes = new LinkedHashMap<>();
+        registry.getMetrics().forEach((name, metric) ->
+                metric.values().forEach((attribute, value) -> attributes.put(attribute.isEmpty() ? name : name + "." + attribute, value)));
+        return attributes;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = attributes().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No metric "+attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric "+attribute.getName()+" is read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Number> attributes = attributes();
+        AttributeList attributeList = new AttributeList();
+        for (String name : names) {
+            Number value = attributes.get(name);
+            if (value != null) {
+                attributeList.add(new Attribute(name, value));
+            }
+        }
+        return attributeList;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "The metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> attributes = attributes();
+        MBeanAttributeInfo[] attributeInfos = new MBeanAttributeInfo[attributes.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> attribute : attributes.entrySet()) {
+            attributeInfos[i++] = new MBeanAttributeInfo(attribute.getKey(), attribute.getValue().getClass().getName(), attribute.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Flickr export processor metrics", attributeInfos, null, new MBeanOperationInfo[0], null);
+    }
+}
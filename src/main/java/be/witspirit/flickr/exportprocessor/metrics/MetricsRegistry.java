@@ -0,0 +1,61 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, timers and gauges of all stages. Names are dot separated, starting with the stage, like
+ * "transfer.bytes". The global registry is reported over JMX and to the log by the {@link MetricsReporter}.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public Counter counter(String name) {
+        return metric(name, Counter.class, key -> new Counter());
+    }
+
+    public Timer timer(String name) {
+        return metric(name, Timer.class, key -> new Timer());
+    }
+
+    /**
+     * Registers a gauge, replacing an earlier one with the same name. Gauges typically sample a structure of a single
+     * run, like its queue, so every run registers its own.
+     */
+    public void gauge(String name, LongSupplier value) {
+        metrics.put(name, new Gauge(value));
+    }
+
+    public void remove(String name) {
+        metrics.remove(name);
+    }
+
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * @return The metrics, by name
+     */
+    public SortedMap<String, Metric> getMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    private <M extends Metric> M metric(String name, Class<M> type, Function<String, M> factory) {
+        Metric metric = metrics.computeIfAbsent(name, factory);
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric "+name+" is a "+metric.getClass().getSimpleName()+", not a "+type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
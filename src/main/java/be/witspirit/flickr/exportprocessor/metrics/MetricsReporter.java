@@ -0,0 +1,151 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the global {@link MetricsRegistry} over JMX, and periodically logs a summary with the throughput of every
+ * counter and, for the counters which know the work ahead, the estimated time remaining.
+ */
+@Service
+public class MetricsReporter {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsReporter.class);
+
+    public static final String OBJECT_NAME = "be.witspirit.flickr.exportprocessor:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private final int reportIntervalSeconds;
+    private final Map<String, Long> previousCounts = new HashMap<>();
+    private long previousNanos = System.nanoTime();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public MetricsReporter(@Value("${metrics.report-interval-seconds}") int reportIntervalSeconds) {
+        this(MetricsRegistry.global(), reportIntervalSeconds);
+    }
+
+    MetricsReporter(MetricsRegistry registry, int reportIntervalSeconds) {
+        this.registry = registry;
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricsMBean(registry), objectName);
+        } catch (JMException e) {
+            LOG.warn("Failed to expose the metrics over JMX as {}", OBJECT_NAME, e);
+        }
+
+        if (reportIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Failed to unregister the metrics from JMX", e);
+        }
+    }
+
+    private void report() {
+        try {
+            String summary = summary();
+            if (summary != null) {
+                LOG.info("Progress: {}", summary);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            LOG.warn("Failed to report the metrics", e);
+        }
+    }
+
+    /**
+     * @return The summary of the metrics since the previous one, or null if no counter changed in between
+     */
+    synchronized String summary() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - previousNanos) / 1e9;
+        previousNanos = now;
+
+        StringJoiner summary = new StringJoiner(" | ");
+        boolean changed = false;
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            if (metric instanceof Counter) {
+                Counter counter = (Counter) metric;
+                long count = counter.get();
+                long delta = count - previousCounts.getOrDefault(name, 0L);
+                previousCounts.put(name, count);
+                changed |= delta != 0;
+                if (count != 0 || counter.getExpected() != 0) {
+                    summary.add(counterSummary(name, counter, count, delta / seconds));
+                }
+            } else if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                if (timer.getCount() > 0) {
+                    summary.add(String.format("%s p50 %.1f ms, p99 %.1f ms, max %.1f ms", name,
+                            timer.getPercentileMillis(50), timer.getPercentileMillis(99), timer.getMaxMillis()));
+                }
+            } else if (metric instanceof Gauge) {
+                summary.add(name + " " + ((Gauge) metric).get());
+            }
+        }
+        return changed ? summary.toString() : null;
+    }
+
+    private static String counterSummary(String name, Counter counter, long count, double rate) {
+        long expected = counter.getExpected();
+        if (expected == 0) {
+            return String.format("%s %d (%.1f/s)", name, count, rate);
+        }
+        long remaining = expected - count;
+        String eta;
+        if (remaining <= 0) {
+            eta = "done";
+        } else if (rate > 0) {
+            long etaSeconds = (long) Math.ceil(remaining / rate);
+            eta = String.format("ETA %d:%02d:%02d", etaSeconds / 3600, etaSeconds / 60 % 60, etaSeconds % 60);
+        } else {
+            eta = "ETA unknown";
+        }
+        return String.format("%s %d/%d (%.1f/s, %s)", name, count, expected, rate, eta);
+    }
+}
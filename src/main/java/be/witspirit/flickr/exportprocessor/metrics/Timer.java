@@ -0,0 +1,88 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram. The durations are counted in power of two buckets of nanoseconds, so recording is cheap and the
+ * percentiles are accurate within a factor of two, which is plenty to see where the time goes.
+ */
+public class Timer implements Metric {
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public Timer() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the time passed since the given {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        buckets[bucket(duration)].increment();
+        count.increment();
+        totalNanos.add(duration);
+        maxNanos.accumulate(duration);
+    }
+
+    private static int bucket(long nanos) {
+        // Bucket i holds the durations up to 2^i nanoseconds
+        return nanos <= 1 ? 0 : Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos - 1));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / 1e6 / samples;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the given percentile (0-100) of the recorded durations
+     */
+    public double getPercentileMillis(double percentile) {
+        long samples = count.sum();
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(samples * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                long upperBound = i < Long.SIZE - 1 ? 1L << i : Long.MAX_VALUE;
+                return Math.min(upperBound, maxNanos.get()) / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public Map<String, Number> values() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("count", getCount());
+        values.put("meanMillis", getMeanMillis());
+        values.put("p50Millis", getPercentileMillis(50));
+        values.put("p95Millis", getPercentileMillis(95));
+        values.put("p99Millis", getPercentileMillis(99));
+        values.put("maxMillis", getMaxMillis());
+        return values;
+    }
+}
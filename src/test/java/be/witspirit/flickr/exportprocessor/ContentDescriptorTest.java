@@ -3,10 +3,17 @@ package be.witspirit.flickr.exportprocessor;
 import org.junit.Test;
 
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ContentDescriptorTest {
+    // The original regex based definition of the Content filename patterns
+    private static final Pattern CONTENT_PATTERN_1 = Pattern.compile("^(\\d{11})_(.{10})(_o)?\\.(.+)$");
+    private static final Pattern CONTENT_PATTERN_2 = Pattern.compile("^(.+)_(\\d+)(_o)?\\.(.+)$");
 
     @Test
     public void pattern2_sample1() {
@@ -33,6 +40,56 @@ public class ContentDescriptorTest {
         assertThat(contentDescriptor.getExtension()).isEqualTo("jpg");
     }
 
+    @Test
+    public void noContentFilename() {
+        assertThat(ContentDescriptor.parse(Path.of("albums.json"), -1)).isEmpty();
+        assertThat(ContentDescriptor.parse(Path.of("_123.jpg"), -1)).isEmpty();
+        assertThat(ContentDescriptor.parse(Path.of("name_123_o."), -1)).isEmpty();
+    }
 
+    @Test
+    public void behavesAsRegexPatterns() {
+        List<String> fileNames = List.of(
+                "20180830_kindjesphotoshoot---001_43536291795_o.jpg",
+                "050602-136_3977224776_o.jpg",
+                "19259555944_1777a52f53_o.jpg",
+                "19259555944_1777a52f53.jpg",
+                "19259555944_1777a52f53_o.",
+                "19259555944_1777_52f53_o.tar.gz",
+                "1925955594_1777a52f53_o.jpg",
+                "movie_12345.mp4",
+                "movie_12345_o.mp4",
+                "movie_12a45_o.mp4",
+                "a_1_2_o.jpg",
+                "a_123.b_456.jpg",
+                "x_12.tar.gz",
+                "name_123_o",
+                "name__o.jpg",
+                "_123.jpg",
+                "name_123_o..");
+        for (String fileName : fileNames) {
+            Optional<ContentDescriptor> parsed = ContentDescriptor.parse(Path.of(fileName), -1);
+            String[] expected = regexParse(fileName);
+            if (expected == null) {
+                assertThat(parsed).as(fileName).isEmpty();
+            } else {
+                assertThat(parsed).as(fileName).isPresent();
+                assertThat(parsed.get().getId()).as(fileName).isEqualTo(expected[0]);
+                assertThat(parsed.get().getName()).as(fileName).isEqualTo(expected[1]);
+                assertThat(parsed.get().getExtension()).as(fileName).isEqualTo(expected[2]);
+            }
+        }
+    }
 
+    private String[] regexParse(String fileName) {
+        Matcher pattern1Matcher = CONTENT_PATTERN_1.matcher(fileName);
+        if (pattern1Matcher.matches()) {
+            return new String[]{pattern1Matcher.group(1), pattern1Matcher.group(2), pattern1Matcher.group(4)};
+        }
+        Matcher pattern2Matcher = CONTENT_PATTERN_2.matcher(fileName);
+        if (pattern2Matcher.matches()) {
+            return new String[]{pattern2Matcher.group(2), pattern2Matcher.group(1), pattern2Matcher.group(4)};
+        }
+        return null;
+    }
 }
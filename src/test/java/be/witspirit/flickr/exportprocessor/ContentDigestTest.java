@@ -0,0 +1,62 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ContentDigestTest {
+    private static final String HOLIDAY_DIGEST = "b0d87e087814d72bfd11f907f9a34ed374f8a3992a82c031e07df80afd131c02";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void copiesWithTheDigest() throws IOException {
+        Path source = Files.writeString(temporaryFolder.newFile("holiday_11_o.jpg").toPath(), "holiday pixels");
+        Path destination = temporaryFolder.newFolder("Processed").toPath().resolve("holiday+11.jpg");
+        // As left behind by an interrupted copy
+        Files.writeString(destination.resolveSibling("holiday+11.jpg" + ContentDigest.PARTIAL_SUFFIX), "holiday pixels and more");
+
+        assertThat(ContentDigest.copy(source, destination)).isEqualTo(HOLIDAY_DIGEST);
+
+        assertThat(destination).hasContent("holiday pixels");
+        assertThat(ContentDigest.of(destination)).isEqualTo(HOLIDAY_DIGEST);
+        try (var files = Files.list(destination.getParent())) {
+            assertThat(files).containsExactly(destination);
+        }
+    }
+
+    @Test
+    public void leavesNoPartialDestinationOnFailure() throws IOException {
+        // Opens fine, but fails on the first read
+        Path source = temporaryFolder.newFolder("holiday_11_o.jpg").toPath();
+        Path destination = temporaryFolder.newFolder("Processed").toPath().resolve("holiday+11.jpg");
+
+        assertThatThrownBy(() -> ContentDigest.copy(source, destination)).isInstanceOf(IOException.class);
+
+        try (var files = Files.list(destination.getParent())) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    public void neverReplacesAnExistingDestination() throws IOException {
+        Path source = Files.writeString(temporaryFolder.newFile("holiday_11_o.jpg").toPath(), "holiday pixels");
+        Path destination = Files.writeString(temporaryFolder.newFolder("Processed").toPath().resolve("holiday+11.jpg"), "other pixels");
+
+        assertThatThrownBy(() -> ContentDigest.copy(source, destination)).isInstanceOf(FileAlreadyExistsException.class);
+
+        assertThat(destination).hasContent("other pixels");
+        try (var files = Files.list(destination.getParent())) {
+            assertThat(files).containsExactly(destination);
+        }
+    }
+}
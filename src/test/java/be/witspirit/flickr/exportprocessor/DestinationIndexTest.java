@@ -0,0 +1,74 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DestinationIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void listsTheSizesOfTheFilesOnce() throws IOException {
+        Path album = temporaryFolder.newFolder("Summer Holiday").toPath();
+        Files.writeString(album.resolve("Beach+11.jpg"), "beach");
+        Files.createDirectories(album.resolve("Nested"));
+        DestinationIndex destinationIndex = new DestinationIndex();
+
+        assertThat(destinationIndex.size(album.resolve("Beach+11.jpg"))).isEqualTo(OptionalLong.of(5));
+        assertThat(destinationIndex.size(album.resolve("Nested"))).isEmpty();
+        // Served from the listing
+        Files.writeString(album.resolve("Dunes+12.jpg"), "dunes");
+        assertThat(destinationIndex.size(album.resolve("Dunes+12.jpg"))).isEmpty();
+    }
+
+    @Test
+    public void recordsWhatIsWritten() {
+        Path album = temporaryFolder.getRoot().toPath().resolve("2018").resolve("Summer Holiday");
+        DestinationIndex destinationIndex = new DestinationIndex();
+
+        assertThat(destinationIndex.size(album.resolve("Beach+11.jpg"))).isEmpty();
+        destinationIndex.recordWritten(album.resolve("Beach+11.jpg"), 5);
+
+        assertThat(destinationIndex.size(album.resolve("Beach+11.jpg"))).isEqualTo(OptionalLong.of(5));
+    }
+
+    @Test
+    public void tellsTheCaseOfTheFileSystem() throws IOException {
+        Path album = temporaryFolder.newFolder("Summer Holiday").toPath();
+        Files.writeString(album.resolve("Beach+11.jpg"), "beach");
+        boolean caseInsensitive = Files.exists(album.resolve("BEACH+11.JPG"));
+
+        assertThat(DestinationIndex.isCaseInsensitive(album, Set.of("Beach+11.jpg"))).isEqualTo(caseInsensitive);
+        assertThat(DestinationIndex.isCaseInsensitive(album.resolve("Missing"), Set.of())).isEqualTo(caseInsensitive);
+    }
+
+    @Test
+    public void ignoresCaseOnACaseInsensitiveFileSystem() throws IOException {
+        Path album = temporaryFolder.newFolder("Summer Holiday").toPath();
+        Files.writeString(album.resolve("Beach+11.jpg"), "beach");
+        DestinationIndex destinationIndex = new DestinationIndex((directory, names) -> true);
+
+        assertThat(destinationIndex.size(album.resolve("beach+11.JPG"))).isEqualTo(OptionalLong.of(5));
+        destinationIndex.recordWritten(album.resolve("DUNES+12.jpg"), 5);
+        assertThat(destinationIndex.size(album.resolve("Dunes+12.jpg"))).isEqualTo(OptionalLong.of(5));
+    }
+
+    @Test
+    public void respectsCaseOnACaseSensitiveFileSystem() throws IOException {
+        Path album = temporaryFolder.newFolder("Summer Holiday").toPath();
+        Files.writeString(album.resolve("Beach+11.jpg"), "beach");
+        DestinationIndex destinationIndex = new DestinationIndex((directory, names) -> false);
+
+        assertThat(destinationIndex.size(album.resolve("beach+11.JPG"))).isEmpty();
+    }
+}
@@ -0,0 +1,83 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class DirectoryIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final DirectoryIndex directoryIndex = new DirectoryIndex();
+
+    @Test
+    public void listsTheFilesWithTheirAttributes() throws IOException {
+        Path directory = temporaryFolder.newFolder("Metadata").toPath();
+        Files.writeString(directory.resolve("photo_11.json"), "{}");
+        Files.setLastModifiedTime(directory.resolve("photo_11.json"), FileTime.fromMillis(1_500_000_000_000L));
+        Files.createDirectories(directory.resolve("Nested").resolve("Deeper"));
+        Files.writeString(directory.resolve("Nested").resolve("photo_12.json"), "{}");
+
+        List<DirectoryEntry> entries = directoryIndex.list(directory);
+
+        // Neither folders, nor what is in them
+        assertThat(entries).extracting(DirectoryEntry::getFileName, DirectoryEntry::getSize, DirectoryEntry::getLastModified)
+                .containsExactly(tuple("photo_11.json", 2L, 1_500_000_000_000L));
+    }
+
+    @Test
+    public void listsTheNamesWithoutAttributes() throws IOException {
+        Path directory = temporaryFolder.newFolder("Metadata").toPath();
+        Files.writeString(directory.resolve("photo_11.json"), "{}");
+        Files.createDirectories(directory.resolve("Nested"));
+
+        List<DirectoryEntry> entries = directoryIndex.listNames(directory);
+
+        assertThat(entries).extracting(DirectoryEntry::getFileName).containsOnly("photo_11.json", "Nested");
+        assertThat(entries).extracting(DirectoryEntry::getSize).containsOnly(DirectoryEntry.UNKNOWN);
+    }
+
+    @Test
+    public void servesTheNamesFromAnEarlierScan() throws IOException {
+        Path directory = temporaryFolder.newFolder("Metadata").toPath();
+        Files.writeString(directory.resolve("photo_11.json"), "{}");
+
+        List<DirectoryEntry> entries = directoryIndex.list(directory);
+
+        assertThat(directoryIndex.listNames(directory)).isSameAs(entries);
+    }
+
+    @Test
+    public void scansAgainOnceInvalidated() throws IOException {
+        Path directory = temporaryFolder.newFolder("Metadata").toPath();
+        Files.writeString(directory.resolve("photo_11.json"), "{}");
+        directoryIndex.list(directory);
+        directoryIndex.listNames(directory);
+        Files.writeString(directory.resolve("photo_12.json"), "{}");
+
+        assertThat(directoryIndex.list(directory)).hasSize(1);
+        directoryIndex.invalidate(directory);
+
+        assertThat(directoryIndex.list(directory)).hasSize(2);
+        assertThat(directoryIndex.listNames(directory)).hasSize(2);
+    }
+
+    @Test
+    public void failsOnAMissingDirectory() {
+        Path directory = temporaryFolder.getRoot().toPath().resolve("Missing");
+
+        assertThatThrownBy(() -> directoryIndex.list(directory)).hasMessage("Failed to list " + directory);
+        assertThatThrownBy(() -> directoryIndex.listNames(directory)).hasMessage("Failed to list " + directory);
+    }
+}
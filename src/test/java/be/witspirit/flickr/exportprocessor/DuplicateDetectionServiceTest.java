@@ -0,0 +1,38 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DuplicateDetectionServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void groupsIdenticalContent() throws IOException {
+        Path content = temporaryFolder.newFolder("ImagesAndVideos").toPath();
+        ContentDescriptor original = content("sunset_21_o.jpg", "sunset", content);
+        ContentDescriptor reupload = content("sunset-again_35_o.jpg", "sunset", content);
+        ContentDescriptor sameSize = content("sunrise_22_o.jpg", "sunris", content);
+        ContentDescriptor unique = content("beach_23_o.jpg", "a longer beach", content);
+
+        DuplicateReport report = new DuplicateDetectionService(2).findDuplicates(List.of(reupload, sameSize, original, unique));
+
+        assertThat(report.getGroups()).hasSize(1);
+        assertThat(report.getGroups().get(0).getOriginal().getId()).isEqualTo("21");
+        assertThat(report.getRedundantIds()).containsOnly("35");
+        assertThat(report.getRedundantBytes()).isEqualTo(6);
+    }
+
+    private ContentDescriptor content(String fileName, String bytes, Path folder) throws IOException {
+        return new ContentDescriptor(Files.writeString(folder.resolve(fileName), bytes));
+    }
+}
@@ -1,5 +1,7 @@
 package be.witspirit.flickr.exportprocessor;
 
+import be.witspirit.flickr.exportprocessor.index.LongObjectMap;
+import be.witspirit.flickr.exportprocessor.index.LongSet;
 import be.witspirit.flickr.exportprocessor.json.Album;
 import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
 import be.witspirit.flickr.exportprocessor.json.Tag;
@@ -8,10 +10,10 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -31,65 +33,95 @@ public class ExportProcessorRunner {
     @Autowired
     private StructuringService structuringService;
 
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private DuplicateDetectionService duplicateDetectionService;
+
+    @Autowired
+    private TransferPipeline transferPipeline;
+
+    @Autowired
+    private Shard shard;
+
+    @Autowired
+    private RelayoutService relayoutService;
+
+    @Value("${transfer.plan}")
+    private String planFile;
+
     @Test
     public void checkForPhotosInMultipleAlbums() {
         List<Album> albums = metadataService.loadAlbums();
 
-        Map<String, List<Album>> photoIdToAlbum = new HashMap<>();
+        LongObjectMap<List<Album>> photoIdToAlbum = new LongObjectMap<>();
         for (Album album : albums) {
                 for (String photoId : album.getPhotoIds()) {
-                    List<Album> appearedInAlbums = photoIdToAlbum.computeIfAbsent(photoId, id -> new ArrayList<>());
+                    long numericPhotoId = Long.parseLong(photoId);
+                    List<Album> appearedInAlbums = photoIdToAlbum.get(numericPhotoId);
+                    if (appearedInAlbums == null) {
+                        appearedInAlbums = new ArrayList<>();
+                        photoIdToAlbum.put(numericPhotoId, appearedInAlbums);
+                    }
                     appearedInAlbums.add(album);
                 }
         }
 
-        Map<String, List<Album>> photosAppearingInMultipleAlbums = photoIdToAlbum.entrySet().stream()
-                .filter(e -> e.getValue().size() > 1)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        LongObjectMap<List<Album>> photosAppearingInMultipleAlbums = new LongObjectMap<>();
+        photoIdToAlbum.forEach((photoId, appearedInAlbums) -> {
+            if (appearedInAlbums.size() > 1) {
+                photosAppearingInMultipleAlbums.put(photoId, appearedInAlbums);
+            }
+        });
 
         if (photosAppearingInMultipleAlbums.isEmpty()) {
             System.out.println("There are no photo's appearing in multiple albums. Analyzed "+albums.size()+" albums.");
         } else {
             System.out.println(photosAppearingInMultipleAlbums.size()+" photo's appear in multiple Albums: ");
-            for (String photoId : photosAppearingInMultipleAlbums.keySet()) {
-                System.out.printf("%-10s : %s\n", photoId, photosAppearingInMultipleAlbums.get(photoId).stream().map(Album::getTitle).collect(Collectors.joining(", ")));
-            }
+            photosAppearingInMultipleAlbums.forEach((photoId, appearedInAlbums) ->
+                System.out.printf("%-10s : %s\n", photoId, appearedInAlbums.stream().map(Album::getTitle).collect(Collectors.joining(", "))));
         }
     }
 
     @Test
     public void doWeHaveMetadataForEachContentItemAndViceVersa() {
-        Map<String, ContentDescriptor> photoIdToContentItem = contentService.loadDescriptors();
-        Set<String> photoMetaIds = metadataService.getPhotoMetaIds();
-
-        Set<String> photosInContentWithoutMetadata = new HashSet<>(photoIdToContentItem.keySet());
-        photosInContentWithoutMetadata.removeAll(photoMetaIds);
+        LongObjectMap<ContentDescriptor> photoIdToContentItem = contentService.loadDescriptorIndex();
+        LongSet contentIds = photoIdToContentItem.keySet();
+        LongSet photoMetaIds = metadataService.getPhotoMetaIdSet();
 
-        Set<String> photosWithMetadataButMissingContent = new HashSet<>(photoMetaIds);
-        photosWithMetadataButMissingContent.removeAll(photoIdToContentItem.keySet());
+        LongSet photosInContentWithoutMetadata = contentIds.without(photoMetaIds);
+        LongSet photosWithMetadataButMissingContent = photoMetaIds.without(contentIds);
 
         System.out.printf("Found %d content items and %d metadata items\n", photoIdToContentItem.size(), photoMetaIds.size());
         System.out.printf("%d/%d content items without metadata\n", photosInContentWithoutMetadata.size(), photoIdToContentItem.size());
         System.out.printf("%d/%d metadata items without content\n", photosWithMetadataButMissingContent.size(), photoMetaIds.size());
 
         System.out.println("Content items without metadata:");
-        for (String photoId : photosInContentWithoutMetadata) {
-            System.out.println(photoId + " : " + photoIdToContentItem.get(photoId));
-        }
+        photosInContentWithoutMetadata.forEach(photoId -> System.out.println(photoId + " : " + photoIdToContentItem.get(photoId)));
 
         System.out.println("Metadata items without content:");
-        for (String photoId : photosWithMetadataButMissingContent) {
-            System.out.println(photoId + " : " + metadataService.getMetadata(photoId).getName());
-        }
+        photosWithMetadataButMissingContent.forEach(photoId -> System.out.println(photoId + " : " + metadataService.getMetadata(Long.toString(photoId)).getName()));
 
     }
 
+    @Test
+    public void reportDuplicateContent() {
+        DuplicateReport report = duplicateDetectionService.findDuplicates(contentService.loadDescriptors().values());
+
+        System.out.println("Duplicate Content: " + report);
+        for (DuplicateReport.DuplicateGroup group : report.getGroups()) {
+            System.out.printf("%s (%d bytes)\n", group.getDigest(), group.getSize());
+            group.getItems().forEach(item -> System.out.println("  " + item));
+        }
+    }
+
     @Test
     public void describeTargetStructure() {
         List<Album> albums = metadataService.loadAlbums();
-        Map<String, PhotoMeta> photoMetaIndex = metadataService.loadPhotoMetadata();
+        PhotoCatalog catalog = metadataService.loadPhotoCatalog();
 
-        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(albums, photoMetaIndex);
+        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(albums, catalog);
 
         System.out.println("Target Structure:");
         for (AlbumDescriptor album : albumDescriptors) {
@@ -117,51 +149,53 @@ public class ExportProcessorRunner {
         Map<String, ContentDescriptor> photoIdToContentDescriptor = contentService.loadDescriptors();
 
         List<Album> albums = metadataService.loadAlbums();
-        Map<String, PhotoMeta> photoMetaIndex = metadataService.loadPhotoMetadata();
+        PhotoCatalog catalog = metadataService.loadPhotoCatalog();
 
-        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(albums, photoMetaIndex);
+        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(albums, catalog);
 
+        TransferStats stats = transferEngine.transfer(albumDescriptors, photoIdToContentDescriptor);
+        System.out.println("Transfer Statistics: " + stats);
+    }
 
-        // First, create all folders
-        for (AlbumDescriptor albumDescriptor : albumDescriptors) {
-            Path albumPath = albumDescriptor.getAlbumPath();
+    @Test
+    public void writeTransferPlan() {
+        Map<String, ContentDescriptor> photoIdToContentDescriptor = contentService.loadDescriptors();
 
-            try {
-                Files.createDirectories(albumPath);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to create directory structure for "+albumPath, e);
-            }
-        }
+        List<Album> albums = metadataService.loadAlbums();
+        PhotoCatalog catalog = metadataService.loadPhotoCatalog();
 
-        // Then, move or copy all files to their respective folders
-        Map<PhotoDescriptor, List<AlbumDescriptor>> photos = structuringService.computePhotoDescriptorToAlbumDescriptorIndex(albumDescriptors);
-        for (PhotoDescriptor photo : photos.keySet()) {
-            List<AlbumDescriptor> albumAppearances = photos.get(photo);
-
-            ContentDescriptor contentDescriptor = photoIdToContentDescriptor.get(photo.getId());
-            if (contentDescriptor == null) {
-                // Probably a photo we already moved...
-                LOG.debug("No source for {}-{}", photo.getId(), photo.getName());
-            } else {
-                Path source = contentDescriptor.getPath();
-
-                AlbumDescriptor moveToAlbum = albumAppearances.get(0);
-                if (albumAppearances.size() > 1) {
-                    // We copy to extra albums first
-                    albumAppearances.stream()
-                            .skip(1) // The first one is our 'moveTo' Album
-                            .map(copyToAlbum -> copyToAlbum.getAlbumPath().resolve(photo.getDestinationFileName()))
-                            .forEach(destination -> Transfer.COPY.transfer(source, destination))
-                            ;
-                }
+        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(albums, catalog);
 
-                // Finally, we MOVE the remaining file
-                Path destination = moveToAlbum.getAlbumPath().resolve(photo.getDestinationFileName());
-                Transfer.MOVE.transfer(source, destination);
-            }
+        // When sharded, the plan only holds the photos of this shard
+        Path planPath = shard.local(Path.of(planFile));
+        long operations = transferEngine.plan(albumDescriptors, photoIdToContentDescriptor, planPath);
+        System.out.println("Planned " + operations + " transfers in " + planPath);
+    }
 
-        }
+    @Test
+    public void applyTransferPlan() {
+        // Executes the plan of writeTransferPlan, without loading any metadata. Every shard takes its part of a complete
+        // plan, unless it wrote a plan of its own.
+        Path planPath = Files.exists(shard.local(Path.of(planFile))) ? shard.local(Path.of(planFile)) : Path.of(planFile);
+        TransferStats stats = transferEngine.apply(planPath);
+        System.out.println("Transfer Statistics: " + stats);
+    }
+
+    @Test
+    public void moveFilesThroughPipeline() {
+        // As moveFilesIntoTargetStructure, but the transfers start while the metadata is still being parsed
+        TransferStats stats = transferPipeline.run();
+        System.out.println("Transfer Statistics: " + stats);
+    }
+
+    @Test
+    public void relayoutToCurrentNaming() {
+        // After a change to the naming rules, renames what was processed before, rather than processing it again
+        List<AlbumDescriptor> albumDescriptors = structuringService.deriveAlbumStructure(metadataService.loadAlbums(), metadataService.loadPhotoCatalog());
 
+        RelayoutStats stats = relayoutService.relayout(albumDescriptors);
+        System.out.println("Relayout Statistics: " + stats);
+        stats.getFailures().forEach((path, e) -> System.out.println(path + ": " + e.getMessage()));
     }
 
     @Test
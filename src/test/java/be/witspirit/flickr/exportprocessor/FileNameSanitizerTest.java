@@ -0,0 +1,49 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileNameSanitizerTest {
+    private static final List<String> SAMPLES = List.of(
+            "20180830_kindjesphotoshoot---001",
+            "Trip to St. Petersburg: day 1/3",
+            "<none> \\\\ back",
+            "Zomer 2019 ",
+            "",
+            "Ĳsland – 北海道 ...");
+
+    @Test
+    public void textAsReplaceAllChain() {
+        for (String sample : SAMPLES) {
+            String expected = sample
+                    .replaceAll("\\.", "_")
+                    .replaceAll("<", "_")
+                    .replaceAll(">", "_")
+                    .replaceAll("/", "_")
+                    .replaceAll("\\\\", "_")
+                    .replaceAll(":", "_");
+            assertThat(FileNameSanitizer.text(sample)).as(sample).isEqualTo(expected);
+            assertThat(FileNameSanitizer.cachedText(sample)).as(sample).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void tagAsReplaceAllChain() {
+        for (String sample : SAMPLES) {
+            String expected = sample
+                    .replaceAll(" ", "-")
+                    .replaceAll("\\\\", "-")
+                    .replaceAll("/", "-");
+            assertThat(FileNameSanitizer.tag(sample)).as(sample).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void unchangedInputIsNotCopied() {
+        String input = "20180830_kindjesphotoshoot---001";
+        assertThat(FileNameSanitizer.text(input)).isSameAs(input);
+    }
+}
@@ -0,0 +1,207 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetadataServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path metadataPath;
+    private Path snapshotPath;
+
+    @Before
+    public void setupMetadata() throws IOException {
+        metadataPath = temporaryFolder.newFolder("Metadata").toPath();
+        snapshotPath = temporaryFolder.getRoot().toPath().resolve("Metadata.snapshot");
+        Files.writeString(metadataPath.resolve("albums.json"), "{\"albums\": [{\"id\": \"721\", \"title\": \"Holiday\", \"photos\": [\"11\", \"12\"]}]}");
+        writePhoto("11", "First");
+        writePhoto("12", "Second");
+    }
+
+    @Test
+    public void parallelLoadCollectsFailures() throws IOException {
+        Files.writeString(metadataPath.resolve("photo_13.json"), "{ not json");
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), new DirectoryIndex(), Shard.ALL, metadataPath.toString(), 4, "");
+
+        PhotoMetadataLoadResult result = metadataService.loadPhotoMetadata(4);
+
+        assertThat(result.getPhotoMetaById()).containsOnlyKeys("11", "12");
+        assertThat(result.getFailures()).containsOnlyKeys(metadataPath.resolve("photo_13.json"));
+        assertThat(result.getFilesProcessed()).isEqualTo(3);
+    }
+
+    @Test
+    public void sequentialLoadCollectsFailures() throws IOException {
+        Files.writeString(metadataPath.resolve("photo_13.json"), "{ not json");
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), new DirectoryIndex(), Shard.ALL, metadataPath.toString(), 1, "");
+
+        PhotoMetadataLoadResult result = metadataService.loadPhotoMetadata(1);
+
+        assertThat(result.getPhotoMetaById()).containsOnlyKeys("11", "12");
+        assertThat(result.getFailures()).containsOnlyKeys(metadataPath.resolve("photo_13.json"));
+    }
+
+    @Test
+    public void parallelLoadMatchesSequentialLoad() throws IOException {
+        for (int id = 13; id < 113; id++) {
+            writePhoto(Integer.toString(id), "Photo " + id);
+        }
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), new DirectoryIndex(), Shard.ALL, metadataPath.toString(), 4, "");
+
+        PhotoMetadataLoadResult sequential = metadataService.loadPhotoMetadata(1);
+        PhotoMetadataLoadResult parallel = metadataService.loadPhotoMetadata(4);
+
+        assertThat(parallel.getFailures()).isEmpty();
+        assertThat(parallel.getFilesProcessed()).isEqualTo(102);
+        assertThat(parallel.getFilesPerSecond()).isPositive();
+        assertThat(parallel.getPhotoMetaById().keySet()).hasSize(102).isEqualTo(sequential.getPhotoMetaById().keySet());
+        sequential.getPhotoMetaById().forEach((photoId, photoMeta) ->
+                assertThat(parallel.getPhotoMetaById().get(photoId).getName()).isEqualTo(photoMeta.getName()));
+    }
+
+    @Test
+    public void streamsParsedPhotosIntoTheCatalog() throws IOException {
+        Files.writeString(metadataPath.resolve("photo_13.json"), "{ not json");
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), new DirectoryIndex(), Shard.ALL, metadataPath.toString(), 4, "");
+
+        PhotoCatalog catalog = metadataService.loadPhotoCatalog();
+
+        assertThat(catalog.size()).isEqualTo(2);
+        assertThat(catalog.name(catalog.rowOf(11))).isEqualTo("First");
+        assertThat(catalog.name(catalog.rowOf(12))).isEqualTo("Second");
+        assertThat(catalog.rowOf(13)).isNegative();
+    }
+
+    @Test
+    public void snapshotOnlyReparsesChangedFiles() throws IOException {
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 1, snapshotPath.toString());
+
+        PhotoMetadataLoadResult cold = metadataService.loadPhotoMetadata(1);
+        assertThat(cold.getFilesProcessed()).isEqualTo(2);
+        assertThat(MetadataSnapshot.latestVersion(snapshotPath)).isNotNull();
+
+        PhotoMetadataLoadResult warm = metadataService.loadPhotoMetadata(1);
+        assertThat(warm.getFilesProcessed()).isEqualTo(0);
+        assertThat(warm.getFilesReused()).isEqualTo(2);
+        assertThat(warm.getPhotoMetaById().get("11").getName()).isEqualTo("First");
+        assertThat(warm.getPhotoMetaById().get("11").getExif()).containsKey("Make");
+
+        Path changed = writePhoto("12", "Second, renamed");
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 2000));
+        directoryIndex.invalidate(metadataPath); // As a next run would scan again
+        PhotoMetadataLoadResult refreshed = metadataService.loadPhotoMetadata(1);
+        assertThat(refreshed.getFilesProcessed()).isEqualTo(1);
+        assertThat(refreshed.getPhotoMetaById().get("12").getName()).isEqualTo("Second, renamed");
+
+        List<Album> albums = metadataService.loadAlbums();
+        assertThat(metadataService.loadAlbums()).hasSize(1);
+        assertThat(albums.get(0).getPhotoIds()).containsExactly("11", "12");
+    }
+
+    @Test
+    public void snapshotIsWrittenAsANewVersion() throws IOException {
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 1, snapshotPath.toString());
+        metadataService.loadPhotoMetadata(1);
+        Path firstVersion = MetadataSnapshot.latestVersion(snapshotPath);
+
+        writePhoto("13", "Third");
+        directoryIndex.invalidate(metadataPath);
+        metadataService.loadPhotoMetadata(1);
+
+        Path secondVersion = MetadataSnapshot.latestVersion(snapshotPath);
+        assertThat(secondVersion).isNotEqualTo(firstVersion);
+        assertThat(firstVersion).doesNotExist();
+        assertThat(snapshotPath).doesNotExist();
+    }
+
+    @Test
+    public void albumsAreRefreshedAlongWithThePhotos() throws IOException {
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 1, snapshotPath.toString());
+        metadataService.loadPhotoMetadata(1);
+        Path albumsPath = Files.writeString(metadataPath.resolve("albums.json"), "{\"albums\": [{\"id\": \"721\", \"title\": \"Summer\", \"photos\": [\"11\"]}]}");
+        Files.setLastModifiedTime(albumsPath, FileTime.fromMillis(Files.getLastModifiedTime(albumsPath).toMillis() + 2000));
+        directoryIndex.invalidate(metadataPath);
+        Path snapshotVersion = MetadataSnapshot.latestVersion(snapshotPath);
+
+        assertThat(metadataService.loadAlbums().get(0).getTitle()).isEqualTo("Summer");
+        assertThat(MetadataSnapshot.latestVersion(snapshotPath)).isEqualTo(snapshotVersion);
+
+        metadataService.loadPhotoMetadata(1);
+        Path refreshed = MetadataSnapshot.latestVersion(snapshotPath);
+        assertThat(refreshed).isNotEqualTo(snapshotVersion);
+        assertThat(MetadataSnapshot.readAlbums(refreshed).getAlbums().get(0).getTitle()).isEqualTo("Summer");
+    }
+
+    @Test
+    public void snapshotOnlyHoldsThePhotosOfItsShard() throws IOException {
+        // Both photos share the Holiday Album, so the shard of the first also parses the date of the second
+        Shard shard = new Shard(Shard.owner("11", 2), 2);
+        assertThat(shard.contains("12")).isFalse();
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, shard, metadataPath.toString(), 1, snapshotPath.toString());
+
+        PhotoMetadataLoadResult cold = metadataService.loadPhotoMetadata(1);
+        assertThat(cold.getPhotoMetaById()).containsOnlyKeys("11", "12");
+
+        MetadataSnapshot snapshot = MetadataSnapshot.read(MetadataSnapshot.latestVersion(shard.local(snapshotPath)), new PhotoMetaReader(new AppConfig().objectMapper()));
+        assertThat(snapshot.getPhotoEntries()).containsOnlyKeys("photo_11.json");
+
+        PhotoMetadataLoadResult warm = metadataService.loadPhotoMetadata(1);
+        assertThat(warm.getFilesReused()).isEqualTo(1);
+        assertThat(warm.getFilesProcessed()).isEqualTo(1);
+        assertThat(warm.getPhotoMetaById().get("12").getDateTaken()).isNotNull();
+    }
+
+    @Test
+    public void readsMetadataArchiveInPlace() throws IOException {
+        Path archivePath = temporaryFolder.getRoot().toPath().resolve("Metadata.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archivePath))) {
+            for (Path file : List.of(metadataPath.resolve("albums.json"), metadataPath.resolve("photo_11.json"), metadataPath.resolve("photo_12.json"))) {
+                zip.putNextEntry(new ZipEntry(file.getFileName().toString()));
+                zip.write(Files.readAllBytes(file));
+                zip.closeEntry();
+            }
+        }
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), new DirectoryIndex(), Shard.ALL, archivePath.toString(), 4, snapshotPath.toString());
+
+        PhotoMetadataLoadResult result = metadataService.loadPhotoMetadata(4);
+
+        assertThat(result.getFailures()).isEmpty();
+        assertThat(result.getPhotoMetaById()).containsOnlyKeys("11", "12");
+        assertThat(result.getPhotoMetaById().get("12").getName()).isEqualTo("Second");
+        assertThat(metadataService.loadPhotoMetadata(4).getFilesReused()).isEqualTo(2);
+        assertThat(metadataService.loadAlbums().get(0).getPhotoIds()).containsExactly("11", "12");
+        assertThat(metadataService.getMetadata("11").getName()).isEqualTo("First");
+
+        // Reopened when needed after closing
+        metadataService.close();
+        assertThat(metadataService.getMetadata("12").getName()).isEqualTo("Second");
+        metadataService.close();
+    }
+
+    private Path writePhoto(String id, String name) throws IOException {
+        return Files.writeString(metadataPath.resolve("photo_" + id + ".json"),
+                "{\"id\": \"" + id + "\", \"name\": \"" + name + "\", \"date_taken\": \"2019-07-14 10:00:00\", " +
+                        "\"original\": \"https://farm1.staticflickr.com/1/" + id + "_abcdef0123_o.jpg\", " +
+                        "\"tags\": [{\"tag\": \"summer\"}], \"exif\": {\"Make\": \"Canon\"}}");
+    }
+}
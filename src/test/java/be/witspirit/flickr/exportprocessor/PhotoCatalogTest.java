@@ -0,0 +1,68 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import be.witspirit.flickr.exportprocessor.json.PhotoMeta;
+import be.witspirit.flickr.exportprocessor.json.PhotoMetaReader;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PhotoCatalogTest {
+    private final PhotoMetaReader reader = new PhotoMetaReader(new AppConfig().objectMapper());
+    private final Map<String, PhotoMeta> photoMetaById = new LinkedHashMap<>();
+
+    private void photo(String id, String name, String dateTaken, String... tags) {
+        photoMetaById.put(id, reader.create(id, name, "Holiday", dateTaken, "https://farm2.staticflickr.com/1842/" + id + "_fcd1b8ad82_o.jpg", List.of(tags), null));
+    }
+
+    @Test
+    public void storesPhotosByIdInColumns() {
+        photo("30", "beach", "2019-07-14 10:00:00", "zomer", "beach");
+        photo("10", "", "2018-01-02 03:04:05");
+        photo("20", "hike", "2019-07-15 11:00:00", "zomer");
+
+        PhotoCatalog catalog = PhotoCatalog.of(photoMetaById.values());
+
+        assertThat(catalog.size()).isEqualTo(3);
+        assertThat(catalog.rowOf(15)).isNegative();
+        int row = catalog.rowOf(30);
+        assertThat(catalog.id(row)).isEqualTo(30);
+        assertThat(catalog.name(row)).isEqualTo("beach");
+        assertThat(catalog.dateTaken(row)).isEqualTo(LocalDateTime.of(2019, 7, 14, 10, 0));
+        PhotoDescriptor beach = catalog.photo(row);
+        assertThat(beach.getTags()).containsExactly("beach", "zomer");
+        // Decoded once
+        assertThat(beach.getTags()).isSameAs(beach.getTags());
+        assertThat(catalog.photo(catalog.rowOf(10)).getTags()).isEmpty();
+        // Identical descriptions are pooled
+        assertThat(catalog.description(catalog.rowOf(10))).isSameAs(catalog.description(catalog.rowOf(20)));
+    }
+
+    @Test
+    public void derivesSameStructureAsFromMetadata() {
+        photo("30", "beach", "2019-07-14 10:00:00", "zomer", "beach");
+        photo("10", "", "2018-01-02 03:04:05");
+        photo("20", "hike", "2019-07-15 11:00:00", "zomer");
+        photo("40", "home", "2020-02-02 02:02:02");
+        List<Album> albums = List.of(
+                new Album("1", "Summer. 2019", "", "3", "0", "0", List.of("30", "10", "20")),
+                new Album("2", "Walks", "", "2", "0", "0", List.of("20", "99")));
+        StructuringService structuringService = new StructuringService("/destination");
+
+        List<AlbumDescriptor> fromMetadata = structuringService.deriveAlbumStructure(albums, photoMetaById);
+        List<AlbumDescriptor> fromCatalog = structuringService.deriveAlbumStructure(albums, PhotoCatalog.of(photoMetaById.values()));
+
+        assertThat(fromCatalog).extracting(AlbumDescriptor::getAlbumPath).isEqualTo(fromMetadata.stream().map(AlbumDescriptor::getAlbumPath).collect(Collectors.toList()));
+        for (int i = 0; i < fromMetadata.size(); i++) {
+            assertThat(fromCatalog.get(i).getPhotos()).extracting(PhotoDescriptor::getDestinationFileName)
+                    .isEqualTo(fromMetadata.get(i).getPhotos().stream().map(PhotoDescriptor::getDestinationFileName).collect(Collectors.toList()));
+        }
+        assertThat(fromCatalog.get(0).getPhotos().get(1).getDestinationFileName()).isEqualTo("Summer_ 2019-002+10.jpg");
+    }
+}
@@ -0,0 +1,45 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PhotoDescriptorTest {
+
+    @Test
+    public void destinationFileNameWithTags() {
+        PhotoDescriptor photo = PhotoDescriptor.builder()
+                .id("43536291795")
+                .name("Trip to St. Petersburg")
+                .flickrFilename("https://farm2.staticflickr.com/1842/43536291795_fcd1b8ad82_o.jpg")
+                .tags(Set.of("zomer", "square format", "st petersburg", "a/b"))
+                .build();
+
+        assertThat(photo.getDestinationFileName()).isEqualTo("Trip to St_ Petersburg+43536291795___#a-b#st-petersburg#zomer.jpg");
+    }
+
+    @Test
+    public void destinationFileNameWithOnlyIgnoredTags() {
+        PhotoDescriptor photo = PhotoDescriptor.builder()
+                .id("11")
+                .name("holiday")
+                .flickrFilename("holiday_11_o.jpg")
+                .tags(Set.of("instagram app"))
+                .build();
+
+        assertThat(photo.getDestinationFileName()).isEqualTo("holiday+11___#.jpg");
+    }
+
+    @Test
+    public void destinationFileNameWithoutTags() {
+        PhotoDescriptor photo = PhotoDescriptor.builder()
+                .id("11")
+                .name("holiday")
+                .flickrFilename("holiday_11_o.jpg")
+                .build();
+
+        assertThat(photo.getDestinationFileName()).isEqualTo("holiday+11.jpg");
+    }
+}
@@ -0,0 +1,181 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelayoutServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path destination;
+    private List<AlbumDescriptor> albums;
+
+    @Before
+    public void setupLayout() throws IOException {
+        destination = temporaryFolder.newFolder("Processed").toPath();
+        PhotoDescriptor beachHouse = photo("11", "Beach house");
+        PhotoDescriptor dunes = photo("12", "Dunes");
+        PhotoDescriptor city = photo("13", "City");
+        PhotoDescriptor cat = photo("14", "Cat");
+        albums = List.of(
+                new AlbumDescriptor("1", "Summer Holiday", List.of(beachHouse, dunes), destination.resolve("2018").resolve("Summer Holiday")),
+                new AlbumDescriptor("2", "Best of", List.of(dunes, city), destination.resolve("2019").resolve("Best of")),
+                new AlbumDescriptor(StructuringService.UNCATEGORIZED_ID, StructuringService.UNCATEGORIZED_NAME, List.of(cat), destination.resolve("Uncategorized_Photos")));
+
+        // As laid out by earlier rules, which replaced spaces and put Best of in another year
+        write(destination.resolve("2018").resolve("Summer_Holiday"), "Beach_house+11.jpg", "Dunes+12.jpg");
+        write(destination.resolve("2017").resolve("Best_of"), "Dunes+12.jpg", "City+13.jpg", "notes.txt");
+        write(destination.resolve("Uncategorized_Photos"), "Cat+14.jpg");
+    }
+
+    @Test
+    public void renamesOnlyWhatChanged() {
+        RelayoutStats stats = new RelayoutService(new StructuringService(destination.toString()), destination.toString()).relayout(albums);
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFoldersRenamed()).isEqualTo(2);
+        assertThat(stats.getFilesRenamed()).isEqualTo(1);
+        assertThat(stats.getFilesUnchanged()).isEqualTo(4);
+        assertThat(stats.getFilesUnmatched()).isEqualTo(1);
+
+        Path summerHoliday = destination.resolve("2018").resolve("Summer Holiday");
+        Path bestOf = destination.resolve("2019").resolve("Best of");
+        assertThat(summerHoliday.resolve("Beach house+11.jpg")).hasContent("Beach_house+11.jpg");
+        assertThat(summerHoliday.resolve("Dunes+12.jpg")).exists();
+        assertThat(bestOf.resolve("City+13.jpg")).exists();
+        // Moved along with its folder
+        assertThat(bestOf.resolve("notes.txt")).exists();
+        assertThat(destination.resolve("Uncategorized_Photos").resolve("Cat+14.jpg")).exists();
+        assertThat(destination.resolve("2018").resolve("Summer_Holiday")).doesNotExist();
+        assertThat(destination.resolve("2017")).doesNotExist();
+    }
+
+    @Test
+    public void secondRunChangesNothing() {
+        RelayoutService relayoutService = new RelayoutService(new StructuringService(destination.toString()), destination.toString());
+        relayoutService.relayout(albums);
+
+        RelayoutStats stats = relayoutService.relayout(albums);
+
+        assertThat(stats.getFoldersRenamed()).isZero();
+        assertThat(stats.getFilesRenamed()).isZero();
+        assertThat(stats.getFilesUnchanged()).isEqualTo(5);
+    }
+
+    @Test
+    public void movesFilesIntoAnExistingFolder() throws IOException {
+        // Both old folders map to the same new folder, so only the first can be renamed as a whole
+        write(destination.resolve("2018").resolve("Summer_Holiday_"), "Beach_house+11.jpg");
+        Files.delete(destination.resolve("2018").resolve("Summer_Holiday").resolve("Beach_house+11.jpg"));
+
+        RelayoutStats stats = new RelayoutService(new StructuringService(destination.toString()), destination.toString()).relayout(albums);
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(destination.resolve("2018").resolve("Summer Holiday").resolve("Beach house+11.jpg")).exists();
+        assertThat(destination.resolve("2018").resolve("Summer Holiday").resolve("Dunes+12.jpg")).exists();
+        assertThat(destination.resolve("2018")).isDirectory();
+        assertThat(destination.resolve("2018").resolve("Summer_Holiday_")).doesNotExist();
+    }
+
+    @Test
+    public void matchesAFolderOfPhotosInSeveralAlbumsByName() throws IOException {
+        // All photos of Best of are in Summer Holiday as well, so both folders get as many votes
+        Files.delete(destination.resolve("2017").resolve("Best_of").resolve("City+13.jpg"));
+        PhotoDescriptor dunes = albums.get(0).getPhotos().get(1);
+        List<AlbumDescriptor> subsetAlbums = List.of(albums.get(0),
+                new AlbumDescriptor("2", "Best of", List.of(dunes), destination.resolve("2019").resolve("Best of")),
+                albums.get(2));
+
+        RelayoutStats stats = new RelayoutService(new StructuringService(destination.toString()), destination.toString()).relayout(subsetAlbums);
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFoldersRenamed()).isEqualTo(2);
+        assertThat(destination.resolve("2019").resolve("Best of").resolve("Dunes+12.jpg")).exists();
+        assertThat(destination.resolve("2018").resolve("Summer Holiday").resolve("Dunes+12.jpg")).exists();
+        assertThat(destination.resolve("2018").resolve("Summer Holiday").resolve("Beach house+11.jpg")).exists();
+    }
+
+    @Test
+    public void leavesAnAmbiguousFolderInPlace() throws IOException {
+        write(destination.resolve("2017").resolve("Favourites"), "Dunes+12.jpg");
+
+        RelayoutStats stats = new RelayoutService(new StructuringService(destination.toString()), destination.toString()).relayout(albums);
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(destination.resolve("2017").resolve("Favourites").resolve("Dunes+12.jpg")).exists();
+        assertThat(stats.getFilesUnmatched()).isEqualTo(2);
+    }
+
+    @Test
+    public void restoresAFileWhoseNewNameStaysTaken() throws IOException {
+        Path tagged = temporaryFolder.newFolder("Tagged").toPath();
+        Path summerHoliday = tagged.resolve("2018").resolve("Summer Holiday");
+        // Tagged with the id of Dunes, so its new name is recognized as Dunes
+        PhotoDescriptor beachHouse = PhotoDescriptor.builder()
+                .id("11")
+                .name("Beach house")
+                .dateTaken(LocalDateTime.of(2018, 7, 14, 10, 0))
+                .flickrFilename("11_abcdef0123_o.jpg")
+                .tags(Set.of("12"))
+                .build();
+        List<AlbumDescriptor> taggedAlbums = List.of(
+                new AlbumDescriptor("1", "Summer Holiday", List.of(beachHouse, photo("12", "Dunes")), summerHoliday));
+        // The new name of the Beach house is held by a Dunes, which can't take its own new name as another Dunes has it
+        write(summerHoliday, "Beach_house+11.jpg", "Beach house+11___#12.jpg", "Dunes+12.jpg");
+
+        RelayoutStats stats = new RelayoutService(new StructuringService(tagged.toString()), tagged.toString()).relayout(taggedAlbums);
+
+        assertThat(stats.getFailures()).containsOnlyKeys(summerHoliday.resolve("Beach house+11___#12.jpg"), summerHoliday.resolve("Beach_house+11.jpg"));
+        assertThat(stats.getStranded()).isEmpty();
+        assertThat(summerHoliday.resolve("Beach_house+11.jpg")).hasContent("Beach_house+11.jpg");
+        assertThat(summerHoliday.resolve("Beach_house+11.jpg.relayout")).doesNotExist();
+    }
+
+    @Test
+    public void keepsTheNameOfAnUnnamedPhotoInEachAlbum() throws IOException {
+        Path unnamedDestination = temporaryFolder.newFolder("Unnamed").toPath();
+        PhotoDescriptor unnamed = photo("15", "");
+        Path summerHoliday = unnamedDestination.resolve("2018").resolve("Summer Holiday");
+        Path bestOf = unnamedDestination.resolve("2018").resolve("Best of");
+        List<AlbumDescriptor> unnamedAlbums = List.of(
+                new AlbumDescriptor("1", "Summer Holiday", List.of(StructuringService.withName(unnamed, "Summer Holiday-001")), summerHoliday),
+                new AlbumDescriptor("2", "Best of", List.of(photo("13", "City"), StructuringService.withName(unnamed, "Best of-002")), bestOf));
+        write(summerHoliday, "Summer Holiday-001+15.jpg");
+        write(bestOf, "City+13.jpg", "Best of-002+15.jpg");
+
+        RelayoutStats stats = new RelayoutService(new StructuringService(unnamedDestination.toString()), unnamedDestination.toString()).relayout(unnamedAlbums);
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFilesRenamed()).isZero();
+        assertThat(stats.getFilesUnchanged()).isEqualTo(3);
+        assertThat(bestOf.resolve("Best of-002+15.jpg")).exists();
+    }
+
+    private static PhotoDescriptor photo(String id, String name) {
+        return PhotoDescriptor.builder()
+                .id(id)
+                .name(name)
+                .dateTaken(LocalDateTime.of(2018, 7, 14, 10, 0))
+                .flickrFilename(id + "_abcdef0123_o.jpg")
+                .build();
+    }
+
+    private static void write(Path folder, String... fileNames) throws IOException {
+        Files.createDirectories(folder);
+        for (String fileName : fileNames) {
+            Files.writeString(folder.resolve(fileName), fileName);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ShardTest {
+
+    @Test
+    public void assignsEveryPhotoToExactlyOneShard() {
+        int[] photosPerShard = new int[4];
+        for (long photoId = 48_000_000_000L; photoId < 48_000_010_000L; photoId++) {
+            int owners = 0;
+            for (int number = 1; number <= 4; number++) {
+                if (new Shard(number, 4).contains(Long.toString(photoId))) {
+                    photosPerShard[number - 1]++;
+                    owners++;
+                }
+            }
+            assertThat(owners).isEqualTo(1);
+        }
+        // Consecutive ids are spread evenly
+        for (int count : photosPerShard) {
+            assertThat(count).isBetween(2_300, 2_700);
+        }
+    }
+
+    @Test
+    public void assignmentIsStable() {
+        // Fixed by the hash, so processes of different versions still agree
+        assertThat(Shard.owner("48123456789", 4)).isEqualTo(1);
+        assertThat(Shard.owner("48123456790", 4)).isEqualTo(3);
+        assertThat(Shard.owner("48123456791", 4)).isEqualTo(2);
+        assertThat(Shard.ALL.contains("48123456789")).isTrue();
+    }
+
+    @Test
+    public void makesFilesLocalToTheShard() {
+        Path journal = Path.of("export", "Processed.journal");
+        assertThat(Shard.ALL.local(journal)).isEqualTo(journal);
+        assertThat(new Shard(2, 3).local(journal)).isEqualTo(Path.of("export", "Processed.journal.2-of-3"));
+    }
+
+    @Test
+    public void rejectsInvalidShards() {
+        assertThatThrownBy(() -> new Shard(0, 2)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new Shard(3, 2)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
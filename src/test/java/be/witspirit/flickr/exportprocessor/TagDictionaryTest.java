@@ -0,0 +1,54 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TagDictionaryTest {
+
+    @Test
+    public void encodesDistinctTagsInTagOrder() {
+        TagDictionary dictionary = new TagDictionary();
+
+        int[] ids = dictionary.encode(List.of("zomer", "a/b", "zomer", "St Petersburg"));
+
+        assertThat(ids).hasSize(3);
+        assertThat(dictionary.tag(ids[0])).isEqualTo("St Petersburg");
+        assertThat(dictionary.tag(ids[1])).isEqualTo("a/b");
+        assertThat(dictionary.tag(ids[2])).isEqualTo("zomer");
+        assertThat(dictionary.fileNameFragment(ids[0])).isEqualTo("St-Petersburg");
+        assertThat(dictionary.fileNameFragment(ids[1])).isEqualTo("a-b");
+    }
+
+    @Test
+    public void sharesTheTagInstance() {
+        TagDictionary dictionary = new TagDictionary();
+
+        String first = dictionary.intern(new String("zomer"));
+        String second = dictionary.intern(new String("zomer"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(dictionary.id("zomer")).isEqualTo(dictionary.id(second));
+        assertThat(dictionary.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void flagsIgnoredTags() {
+        TagDictionary dictionary = new TagDictionary();
+
+        assertThat(dictionary.isIgnored(dictionary.id("iphoneography"))).isTrue();
+        assertThat(dictionary.isIgnored(dictionary.id("zomer"))).isFalse();
+    }
+
+    @Test
+    public void growsBeyondTheInitialCapacity() {
+        TagDictionary dictionary = new TagDictionary();
+
+        for (int i = 0; i < 5000; i++) {
+            assertThat(dictionary.id("tag" + i)).isEqualTo(i);
+        }
+        assertThat(dictionary.tag(4321)).isEqualTo("tag4321");
+    }
+}
@@ -0,0 +1,295 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransferEngineTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path destination;
+    private Path source;
+    private PhotoDescriptor photo;
+    private List<AlbumDescriptor> albums;
+
+    @Before
+    public void setupPhotoInTwoAlbums() throws IOException {
+        Path content = temporaryFolder.newFolder("ImagesAndVideos").toPath();
+        destination = temporaryFolder.newFolder("Processed").toPath();
+        source = Files.writeString(content.resolve("holiday_11_o.jpg"), "holiday pixels");
+
+        photo = PhotoDescriptor.builder()
+                .id("11")
+                .name("holiday")
+                .dateTaken(LocalDateTime.of(2019, 7, 14, 10, 0))
+                .flickrFilename("holiday_11_o.jpg")
+                .tags(Set.of("summer"))
+                .build();
+        albums = List.of(
+                new AlbumDescriptor("1", "First", new ArrayList<>(List.of(photo)), destination.resolve("2019").resolve("First")),
+                new AlbumDescriptor("2", "Second", new ArrayList<>(List.of(photo)), destination.resolve("2019").resolve("Second")));
+    }
+
+    @Test
+    public void copiesToExtraAlbumsBeforeMove() {
+        TransferStats stats = engine(Transfer.COPY, "").transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        assertTransferredToBothAlbums(stats);
+    }
+
+    @Test
+    public void linksToExtraAlbums() throws IOException {
+        TransferStats stats = engine(Transfer.LINK, "").transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        assertTransferredToBothAlbums(stats);
+        assertThat(Files.isSameFile(destination(0), destination(1))).isTrue();
+    }
+
+    @Test
+    public void clonesToExtraAlbums() throws IOException {
+        TransferStats stats = engine(Transfer.REFLINK, "").transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        assertTransferredToBothAlbums(stats);
+        assertThat(Files.isSameFile(destination(0), destination(1))).isFalse();
+    }
+
+    @Test
+    public void resumesFromJournal() throws IOException {
+        String journal = temporaryFolder.getRoot().toPath().resolve("Processed.journal").toString();
+        engine(Transfer.COPY, journal).transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        // Would be reported as a mismatching destination, if we would check the file system
+        Files.writeString(source, "other pixels");
+        TransferStats resumed = engine(Transfer.COPY, journal).transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        assertThat(resumed.getFailures()).isEmpty();
+        assertThat(resumed.getFilesTransferred()).isEqualTo(0);
+        assertThat(resumed.getFilesSkipped()).isEqualTo(2);
+    }
+
+    @Test
+    public void recordsDigestsOfVerifiedCopies() throws IOException {
+        Path manifest = temporaryFolder.getRoot().toPath().resolve("Processed.sha256");
+        TransferStats stats = engine(Transfer.COPY, "", manifest.toString()).transfer(albums, Map.of("11", new ContentDescriptor(source)));
+
+        assertTransferredToBothAlbums(stats);
+        // The copy to the second Album computes the digest, which is reused for the rename into the first Album
+        String digest = "b0d87e087814d72bfd11f907f9a34ed374f8a3992a82c031e07df80afd131c02";
+        assertThat(DigestManifest.open(manifest).digest(destination(0))).isEqualTo(digest);
+        assertThat(DigestManifest.open(manifest).digest(destination(1))).isEqualTo(digest);
+    }
+
+    @Test
+    public void appliesPlanWithoutMetadata() throws IOException {
+        Path plan = temporaryFolder.getRoot().toPath().resolve("Processed.plan");
+        long operations = engine(Transfer.LINK, "").plan(albums, Map.of("11", new ContentDescriptor(source)), plan);
+
+        assertThat(operations).isEqualTo(2);
+        assertThat(source).exists();
+        assertThat(destination(0)).doesNotExist();
+
+        TransferStats stats = engine(Transfer.LINK, "").apply(plan);
+        assertTransferredToBothAlbums(stats);
+        assertThat(Files.isSameFile(destination(0), destination(1))).isTrue();
+
+        // Applying again finds all destinations present
+        TransferStats repeated = engine(Transfer.LINK, "").apply(plan);
+        assertThat(repeated.getFailures()).isEmpty();
+        assertThat(repeated.getFilesSkipped()).isEqualTo(2);
+    }
+
+    @Test
+    public void transfersFromContentArchiveInPlace() throws IOException {
+        Path content = source.getParent();
+        Path archive = content.resolve("data-download-1.zip");
+        try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toUri()), Map.of("create", "true"))) {
+            Files.move(source, zip.getPath("holiday_11_o.jpg"));
+        }
+        long archiveSize = Files.size(archive);
+
+        ContentService contentService = new ContentService(new DirectoryIndex(), Shard.ALL, content.toString(), 1);
+        try {
+            Map<String, ContentDescriptor> contentById = contentService.loadDescriptors();
+            assertThat(contentById).containsOnlyKeys("11");
+
+            TransferStats stats = engine(Transfer.LINK, "").transfer(albums, contentById);
+
+            assertThat(stats.getFailures()).isEmpty();
+            assertThat(stats.getFilesTransferred()).isEqualTo(2);
+            assertThat(destination(0)).hasContent("holiday pixels");
+            assertThat(Files.isSameFile(destination(0), destination(1))).isTrue();
+        } finally {
+            contentService.close();
+        }
+        assertThat(Files.size(archive)).isEqualTo(archiveSize);
+    }
+
+    @Test
+    public void prefersExtractedContentOverItsArchive() throws IOException {
+        Path content = source.getParent();
+        // Extracted, but the archive was kept around, as well as a second download of it
+        for (String archiveName : List.of("data-download-1.zip", "data-download-1 (1).zip")) {
+            Path archive = content.resolve(archiveName);
+            try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toUri()), Map.of("create", "true"))) {
+                Files.copy(source, zip.getPath("holiday_11_o.jpg"));
+            }
+        }
+
+        ContentService contentService = new ContentService(new DirectoryIndex(), Shard.ALL, content.toString(), 2);
+        try {
+            assertThat(contentService.loadDescriptors().get("11").getPath()).isEqualTo(source);
+            assertThat(contentService.loadDescriptorIndex().get(11L).getPath()).isEqualTo(source);
+        } finally {
+            contentService.close();
+        }
+    }
+
+    @Test
+    public void namesAnUnnamedPhotoAfterEachAlbum() throws IOException {
+        Path unnamedSource = Files.writeString(source.resolveSibling("img_21_o.jpg"), "unnamed pixels");
+        PhotoDescriptor unnamed = PhotoDescriptor.builder()
+                .id("21")
+                .name("")
+                .dateTaken(LocalDateTime.of(2019, 7, 14, 10, 0))
+                .flickrFilename("img_21_o.jpg")
+                .build();
+        Path first = destination.resolve("2019").resolve("First");
+        Path second = destination.resolve("2019").resolve("Second");
+        List<AlbumDescriptor> unnamedAlbums = List.of(
+                new AlbumDescriptor("1", "First", List.of(StructuringService.withName(unnamed, "First-001")), first),
+                new AlbumDescriptor("2", "Second", List.of(photo, StructuringService.withName(unnamed, "Second-002")), second));
+
+        TransferStats stats = engine(Transfer.COPY, "").transfer(unnamedAlbums, Map.of("21", new ContentDescriptor(unnamedSource)));
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(first.resolve("First-001+21.jpg")).hasContent("unnamed pixels");
+        assertThat(second.resolve("Second-002+21.jpg")).hasContent("unnamed pixels");
+        assertThat(second.resolve("First-001+21.jpg")).doesNotExist();
+    }
+
+    @Test
+    public void placesTheOriginalOfASkippedDuplicate() throws IOException {
+        Path duplicateSource = Files.writeString(source.resolveSibling("dunes_12_o.jpg"), "holiday pixels");
+        PhotoDescriptor duplicate = PhotoDescriptor.builder()
+                .id("12")
+                .name("dunes")
+                .dateTaken(LocalDateTime.of(2019, 7, 15, 10, 0))
+                .flickrFilename("dunes_12_o.jpg")
+                .build();
+        Path third = destination.resolve("2019").resolve("Third");
+        List<AlbumDescriptor> duplicateAlbums = List.of(albums.get(0), albums.get(1),
+                new AlbumDescriptor("3", "Third", List.of(duplicate), third));
+        Files.createDirectories(third);
+        TransferEngine engine = new TransferEngine(new StructuringService(destination.toString()), new DirectoryIndex(), new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.LINK, true, "", 1, "");
+
+        TransferStats stats = engine.transfer(duplicateAlbums, Map.of("11", new ContentDescriptor(source), "12", new ContentDescriptor(duplicateSource)));
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFilesTransferred()).isEqualTo(3);
+        assertThat(stats.getFilesDuplicate()).isEqualTo(1);
+        assertThat(source).doesNotExist();
+        assertThat(destination(1)).hasContent("holiday pixels");
+        assertThat(third.resolve(duplicate.getDestinationFileName())).hasContent("holiday pixels");
+        assertThat(Files.isSameFile(third.resolve(duplicate.getDestinationFileName()), destination(0))).isTrue();
+        // Left in place, as its content is already transferred
+        assertThat(duplicateSource).exists();
+    }
+
+    @Test
+    public void plansTheOriginalOfASkippedDuplicate() throws IOException {
+        Path duplicateSource = Files.writeString(source.resolveSibling("dunes_12_o.jpg"), "holiday pixels");
+        PhotoDescriptor duplicate = PhotoDescriptor.builder()
+                .id("12")
+                .name("dunes")
+                .dateTaken(LocalDateTime.of(2019, 7, 15, 10, 0))
+                .flickrFilename("dunes_12_o.jpg")
+                .build();
+        Path third = destination.resolve("2019").resolve("Third");
+        List<AlbumDescriptor> duplicateAlbums = List.of(albums.get(0), albums.get(1),
+                new AlbumDescriptor("3", "Third", List.of(duplicate), third));
+        Path plan = temporaryFolder.getRoot().toPath().resolve("Processed.plan");
+        TransferEngine engine = new TransferEngine(new StructuringService(destination.toString()), new DirectoryIndex(), new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.COPY, true, "", 1, "");
+
+        long operations = engine.plan(duplicateAlbums, Map.of("11", new ContentDescriptor(source), "12", new ContentDescriptor(duplicateSource)), plan);
+        TransferStats stats = engine.apply(plan);
+
+        assertThat(operations).isEqualTo(3);
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(destination(0)).hasContent("holiday pixels");
+        assertThat(third.resolve(duplicate.getDestinationFileName())).hasContent("holiday pixels");
+        assertThat(duplicateSource).exists();
+    }
+
+    @Test
+    public void plansADuplicateWhoseOriginalHasNoMetadata() throws IOException {
+        // The earlier upload, of which only the content is in the export
+        Path originalSource = Files.writeString(source.resolveSibling("upload_10_o.jpg"), "holiday pixels");
+        Path plan = temporaryFolder.getRoot().toPath().resolve("Processed.plan");
+        TransferEngine engine = new TransferEngine(new StructuringService(destination.toString()), new DirectoryIndex(), new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.COPY, true, "", 1, "");
+
+        long operations = engine.plan(albums, Map.of("10", new ContentDescriptor(originalSource), "11", new ContentDescriptor(source)), plan);
+        TransferStats stats = engine.apply(plan);
+
+        assertThat(operations).isEqualTo(2);
+        assertTransferredToBothAlbums(stats);
+        assertThat(originalSource).exists();
+    }
+
+    @Test
+    public void sessionsKeepTheirOwnWorkers() {
+        TransferEngine engine = engine(Transfer.COPY, "");
+        albums.forEach(engine::createAlbumFolder);
+        TransferEngine.Session first = engine.start(Map.of("11", new ContentDescriptor(source)));
+        // Started and finished while the first is still going
+        engine.start(Map.of()).finish();
+
+        first.submit(photo, List.of(destination(0), destination(1)));
+
+        assertTransferredToBothAlbums(first.finish());
+    }
+
+    @Test(timeout = 10_000)
+    public void stopsWithoutWaitingForASessionWhichIsNeverFinished() {
+        TransferEngine engine = engine(Transfer.COPY, "");
+        engine.start(Map.of());
+
+        engine.stop();
+    }
+
+    private TransferEngine engine(Transfer duplicateTransfer, String journal) {
+        return engine(duplicateTransfer, journal, "");
+    }
+
+    private TransferEngine engine(Transfer duplicateTransfer, String journal, String manifest) {
+        return new TransferEngine(new StructuringService(destination.toString()), new DirectoryIndex(), new DuplicateDetectionService(1), Shard.ALL, 2, duplicateTransfer, false, journal, 1, manifest);
+    }
+
+    private Path destination(int albumIndex) {
+        return albums.get(albumIndex).getAlbumPath().resolve(photo.getDestinationFileName());
+    }
+
+    private void assertTransferredToBothAlbums(TransferStats stats) {
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFilesTransferred()).isEqualTo(2);
+        assertThat(source).doesNotExist();
+        assertThat(destination(0)).hasContent("holiday pixels");
+        assertThat(destination(1)).hasContent("holiday pixels");
+    }
+}
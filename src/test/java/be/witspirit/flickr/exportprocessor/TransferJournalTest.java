@@ -0,0 +1,77 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransferJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysTheCompletedTransfers() throws IOException {
+        Path journalPath = temporaryFolder.getRoot().toPath().resolve("Processed.journal");
+        Path completed = Path.of("Processed", "2018", "Summer Holiday", "Beach+11.jpg");
+        Path planned = Path.of("Processed", "2018", "Summer Holiday", "Dunes+12.jpg");
+        try (TransferJournal journal = TransferJournal.open(journalPath, 10)) {
+            journal.planned(Path.of("Content", "beach_11_o.jpg"), completed);
+            journal.planned(Path.of("Content", "dunes_12_o.jpg"), planned);
+            journal.completed(completed);
+        }
+
+        try (TransferJournal journal = TransferJournal.open(journalPath, 10)) {
+            assertThat(journal.isCompleted(completed)).isTrue();
+            assertThat(journal.isCompleted(planned)).isFalse();
+        }
+    }
+
+    @Test
+    public void ignoresARecordTornWithinACharacter() throws IOException {
+        Path journalPath = temporaryFolder.getRoot().toPath().resolve("Processed.journal");
+        Path completed = Path.of("Processed", "2018", "Summer", "Beach+11.jpg");
+        byte[] completedRecord = ("C\t" + completed + "\n").getBytes(StandardCharsets.UTF_8);
+        // Interrupted halfway the two bytes of the umlaut
+        byte[] tornRecord = ("C\t" + completed.getParent() + "/D\u00fcnes+12.jpg").getBytes(StandardCharsets.UTF_8);
+        int tornLength = tornRecord.length - "\u00bcnes+12.jpg".length();
+        assertThat(tornRecord[tornLength - 1]).isEqualTo((byte) 0xC3);
+        byte[] journalBytes = Arrays.copyOf(completedRecord, completedRecord.length + tornLength);
+        System.arraycopy(tornRecord, 0, journalBytes, completedRecord.length, tornLength);
+        Files.write(journalPath, journalBytes);
+
+        Path next = Path.of("Processed", "2018", "Summer", "Sea+13.jpg");
+        try (TransferJournal journal = TransferJournal.open(journalPath, 10)) {
+            assertThat(journal.isCompleted(completed)).isTrue();
+            journal.completed(next);
+        }
+
+        // The next record starts on a line of its own
+        try (TransferJournal journal = TransferJournal.open(journalPath, 10)) {
+            assertThat(journal.isCompleted(completed)).isTrue();
+            assertThat(journal.isCompleted(next)).isTrue();
+        }
+    }
+
+    @Test
+    public void decodesAnInvalidRecordLeniently() throws IOException {
+        Path journalPath = temporaryFolder.getRoot().toPath().resolve("Processed.journal");
+        Path completed = Path.of("Processed", "2018", "Summer", "Beach+11.jpg");
+        byte[] invalidRecord = {'C', '\t', (byte) 0xC3, '\n'};
+        byte[] completedRecord = ("C\t" + completed + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] journalBytes = Arrays.copyOf(invalidRecord, invalidRecord.length + completedRecord.length);
+        System.arraycopy(completedRecord, 0, journalBytes, invalidRecord.length, completedRecord.length);
+        Files.write(journalPath, journalBytes);
+
+        try (TransferJournal journal = TransferJournal.open(journalPath, 10)) {
+            assertThat(journal.isCompleted(completed)).isTrue();
+        }
+    }
+}
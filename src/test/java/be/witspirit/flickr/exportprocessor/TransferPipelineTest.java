@@ -0,0 +1,162 @@
+package be.witspirit.flickr.exportprocessor;
+
+import be.witspirit.flickr.exportprocessor.json.Album;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TransferPipelineTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path metadataPath;
+    private Path contentPath;
+    private Path destinationPath;
+
+    @Before
+    public void setupExport() throws IOException {
+        metadataPath = temporaryFolder.newFolder("Metadata").toPath();
+        contentPath = temporaryFolder.newFolder("ImagesAndVideos").toPath();
+        destinationPath = temporaryFolder.getRoot().toPath().resolve("Processed");
+        // Photo 12 appears in both Albums, 14 has no metadata, while 13 and 15 are not in any Album
+        Files.writeString(metadataPath.resolve("albums.json"), "{\"albums\": [" +
+                "{\"id\": \"721\", \"title\": \"Holiday\", \"photos\": [\"11\", \"12\"]}, " +
+                "{\"id\": \"722\", \"title\": \"Summer\", \"photos\": [\"12\", \"14\"]}]}");
+        writePhoto("11", "First", "2019");
+        writePhoto("12", "Second", "2018");
+        writePhoto("13", "Third", "2017");
+        writePhoto("15", "", "2016");
+    }
+
+    @Test
+    public void producesTheSameLayoutAsThePhasedTransfer() {
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 2, "");
+        StructuringService structuringService = new StructuringService(destinationPath.toString());
+        List<Path> expectedDestinations = new ArrayList<>();
+        for (AlbumDescriptor album : structuringService.deriveAlbumStructure(metadataService.loadAlbums(), metadataService.loadPhotoMetadata())) {
+            for (PhotoDescriptor photo : album.getPhotos()) {
+                expectedDestinations.add(album.getAlbumPath().resolve(photo.getDestinationFileName()));
+            }
+        }
+
+        TransferEngine transferEngine = new TransferEngine(structuringService, directoryIndex, new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.COPY, false, "", 1, "");
+        // The smallest queue and batches, so the parsing has to wait for the transfers
+        TransferPipeline pipeline = new TransferPipeline(metadataService, new ContentService(directoryIndex, Shard.ALL, contentPath.toString(), 1), structuringService, transferEngine, Shard.ALL, 1, 1);
+        TransferStats stats = pipeline.run();
+
+        assertThat(stats.getFailures()).isEmpty();
+        assertThat(stats.getFilesTransferred()).isEqualTo(5);
+        assertThat(expectedDestinations).hasSize(5).allMatch(Files::exists);
+        assertThat(expectedDestinations).contains(destinationPath.resolve("2018").resolve("Summer").resolve("Second+12.jpg"));
+        assertThat(contentPath.resolve("photo_15_o.jpg")).doesNotExist();
+    }
+
+    @Test
+    public void shardsTogetherProduceTheUnshardedLayout() {
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 2, "");
+        StructuringService structuringService = new StructuringService(destinationPath.toString());
+        List<Path> expectedDestinations = new ArrayList<>();
+        for (AlbumDescriptor album : structuringService.deriveAlbumStructure(metadataService.loadAlbums(), metadataService.loadPhotoMetadata())) {
+            for (PhotoDescriptor photo : album.getPhotos()) {
+                expectedDestinations.add(album.getAlbumPath().resolve(photo.getDestinationFileName()));
+            }
+        }
+
+        // Photo 12 belongs to the first shard, the others to the second. Holiday is shared, and still goes in 2018.
+        long transferred = 0;
+        for (int number = 1; number <= 2; number++) {
+            Shard shard = new Shard(number, 2);
+            DirectoryIndex shardIndex = new DirectoryIndex();
+            TransferPipeline pipeline = new TransferPipeline(
+                    new MetadataService(new AppConfig().objectMapper(), shardIndex, shard, metadataPath.toString(), 2, ""),
+                    new ContentService(shardIndex, shard, contentPath.toString(), 1),
+                    structuringService,
+                    new TransferEngine(structuringService, shardIndex, new DuplicateDetectionService(1), shard, 2, Transfer.COPY, false, "", 1, ""),
+                    shard, 1, 1);
+            TransferStats stats = pipeline.run();
+            assertThat(stats.getFailures()).isEmpty();
+            transferred += stats.getFilesTransferred();
+        }
+
+        assertThat(transferred).isEqualTo(5);
+        assertThat(expectedDestinations).hasSize(5).allMatch(Files::exists);
+        assertThat(destinationPath.resolve("2018").resolve("Holiday").resolve("First+11.jpg")).exists();
+    }
+
+    @Test
+    public void namesUncategorizedPhotosAlikeInEveryMode() throws IOException {
+        // Unnamed photos outside any Album, named after their position, with ids which order differently as text
+        for (String id : List.of("9", "1000", "55", "101")) {
+            writePhoto(id, "", "2016");
+        }
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 2, "");
+        StructuringService structuringService = new StructuringService(destinationPath.toString());
+        List<Album> albums = metadataService.loadAlbums();
+        Set<Path> fromMetadata = destinations(structuringService.deriveAlbumStructure(albums, metadataService.loadPhotoMetadata()));
+        Set<Path> fromCatalog = destinations(structuringService.deriveAlbumStructure(albums, metadataService.loadPhotoCatalog()));
+
+        TransferEngine transferEngine = new TransferEngine(structuringService, directoryIndex, new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.COPY, false, "", 1, "");
+        TransferPipeline pipeline = new TransferPipeline(metadataService, new ContentService(directoryIndex, Shard.ALL, contentPath.toString(), 1), structuringService, transferEngine, Shard.ALL, 1, 2);
+        assertThat(pipeline.run().getFailures()).isEmpty();
+
+        Path uncategorized = destinationPath.resolve("Uncategorized_Photos");
+        assertThat(fromMetadata).contains(
+                uncategorized.resolve("Uncategorized Photos-001+9.jpg"),
+                uncategorized.resolve("Uncategorized Photos-006+1000.jpg"));
+        assertThat(fromCatalog).isEqualTo(fromMetadata);
+        try (Stream<Path> transferred = Files.walk(destinationPath)) {
+            assertThat(transferred.filter(Files::isRegularFile).collect(Collectors.toSet())).isEqualTo(fromMetadata);
+        }
+    }
+
+    @Test
+    public void reportsAFailureToStructureAnAlbum() throws IOException {
+        // The Album folders can't be created inside a file
+        Files.writeString(destinationPath, "not a folder");
+        DirectoryIndex directoryIndex = new DirectoryIndex();
+        MetadataService metadataService = new MetadataService(new AppConfig().objectMapper(), directoryIndex, Shard.ALL, metadataPath.toString(), 2, "");
+        StructuringService structuringService = new StructuringService(destinationPath.toString());
+        TransferEngine transferEngine = new TransferEngine(structuringService, directoryIndex, new DuplicateDetectionService(1), Shard.ALL, 2, Transfer.COPY, false, "", 1, "");
+        TransferPipeline pipeline = new TransferPipeline(metadataService, new ContentService(directoryIndex, Shard.ALL, contentPath.toString(), 1), structuringService, transferEngine, Shard.ALL, 1, 1);
+
+        assertThatThrownBy(pipeline::run)
+                .hasMessageContaining("Failed to parse the photo metadata")
+                .hasRootCauseInstanceOf(FileSystemException.class);
+    }
+
+    private static Set<Path> destinations(List<AlbumDescriptor> albums) {
+        Set<Path> destinations = new HashSet<>();
+        for (AlbumDescriptor album : albums) {
+            for (PhotoDescriptor photo : album.getPhotos()) {
+                destinations.add(album.getAlbumPath().resolve(photo.getDestinationFileName()));
+            }
+        }
+        return destinations;
+    }
+
+    private void writePhoto(String id, String name, String year) throws IOException {
+        Files.writeString(metadataPath.resolve("photo_" + id + ".json"),
+                "{\"id\": \"" + id + "\", \"name\": \"" + name + "\", \"date_taken\": \"" + year + "-07-14 10:00:00\", " +
+                        "\"original\": \"https://farm1.staticflickr.com/1/" + id + "_abcdef0123_o.jpg\", \"tags\": []}");
+        Files.writeString(contentPath.resolve("photo_" + id + "_o.jpg"), "pixels of " + id);
+    }
+}
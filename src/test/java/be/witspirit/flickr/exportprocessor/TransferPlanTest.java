@@ -0,0 +1,63 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TransferPlanTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void streamsTheOperationsPerPhoto() throws IOException {
+        Path root = temporaryFolder.getRoot().toPath();
+        Path archive = root.resolve("data download 1.zip");
+        try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toUri()), Map.of("create", "true"))) {
+            Files.writeString(zip.getPath("holiday_12_o.jpg"), "pixels");
+        }
+        Path plan = root.resolve("Processed.plan");
+
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null);
+             TransferPlan.Writer writer = TransferPlan.write(plan)) {
+            writer.write(List.of(
+                    new TransferPlan.Operation("11", Transfer.LINK, 10, root.resolve("a_11_o.jpg"), root.resolve("Second").resolve("a+11.jpg")),
+                    new TransferPlan.Operation("11", Transfer.MOVE, 10, root.resolve("a_11_o.jpg"), root.resolve("First").resolve("a+11.jpg"))));
+            writer.write(List.of(
+                    new TransferPlan.Operation("12", Transfer.COPY, 6, zip.getPath("holiday_12_o.jpg"), root.resolve("First").resolve("holiday+12.jpg"))));
+            writer.commit();
+        }
+
+        List<List<TransferPlan.Operation>> photos = new ArrayList<>();
+        try (TransferPlan.Reader reader = TransferPlan.read(plan)) {
+            reader.forEachPhoto(photos::add);
+
+            assertThat(photos).hasSize(2);
+            assertThat(photos.get(0)).extracting(TransferPlan.Operation::getTransfer).containsExactly(Transfer.LINK, Transfer.MOVE);
+            assertThat(photos.get(0).get(1).getDestination()).isEqualTo(root.resolve("First").resolve("a+11.jpg"));
+            TransferPlan.Operation fromArchive = photos.get(1).get(0);
+            assertThat(fromArchive.getSize()).isEqualTo(6);
+            assertThat(fromArchive.getSource()).hasContent("pixels");
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path notAPlan = Files.writeString(temporaryFolder.getRoot().toPath().resolve("Processed.journal"), "C\\t/some/path\\n");
+
+        assertThatThrownBy(() -> TransferPlan.read(notAPlan)).hasMessageContaining(notAPlan.toString());
+    }
+}
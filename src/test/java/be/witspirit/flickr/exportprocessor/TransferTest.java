@@ -0,0 +1,62 @@
+package be.witspirit.flickr.exportprocessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class TransferTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void clonesOrCopies() throws IOException {
+        Path source = Files.writeString(temporaryFolder.newFile("holiday_11_o.jpg").toPath(), "holiday pixels");
+        Path destination = temporaryFolder.newFolder("Processed").toPath().resolve("holiday+11.jpg");
+
+        assertThat(Transfer.REFLINK.transfer(source, destination)).isTrue();
+
+        assertThat(destination).hasContent("holiday pixels");
+        // A clone shares the blocks, but not the file
+        assertThat(Files.isSameFile(source, destination)).isFalse();
+        assertThat(Transfer.REFLINK.transfer(source, destination)).isFalse();
+    }
+
+    @Test
+    public void copiesWhenASingleCloneFails() throws IOException {
+        String osName = System.getProperty("os.name").toLowerCase();
+        assumeTrue(osName.contains("linux") || osName.contains("mac"));
+        Path archive = temporaryFolder.getRoot().toPath().resolve("data-download-1.zip");
+        Path destinationFolder = temporaryFolder.newFolder("Processed").toPath();
+        // Unless an earlier clone found out already
+        boolean cloningUnsupported = Transfer.isCloningUnsupported(Files.getFileStore(destinationFolder));
+        try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toUri()), Map.of("create", "true"))) {
+            // cp can't read a path inside an archive, but that doesn't say anything about the destination
+            Path source = Files.writeString(zip.getPath("holiday_11_o.jpg"), "holiday pixels");
+
+            Transfer.REFLINK.transfer(source, destinationFolder.resolve("holiday+11.jpg"));
+        }
+
+        assertThat(destinationFolder.resolve("holiday+11.jpg")).hasContent("holiday pixels");
+        assertThat(Transfer.isCloningUnsupported(Files.getFileStore(destinationFolder))).isEqualTo(cloningUnsupported);
+    }
+
+    @Test
+    public void tellsUnsupportedCloningFromAFailedClone() {
+        assertThat(Transfer.isCloningUnsupported("cp: failed to clone 'b' from 'a': Operation not supported")).isTrue();
+        assertThat(Transfer.isCloningUnsupported("cp: failed to clone 'b' from 'a': Invalid cross-device link")).isTrue();
+        assertThat(Transfer.isCloningUnsupported("cp: cannot create regular file 'b': Permission denied")).isFalse();
+        assertThat(Transfer.isCloningUnsupported("cp: cannot stat 'a': No such file or directory")).isFalse();
+    }
+}
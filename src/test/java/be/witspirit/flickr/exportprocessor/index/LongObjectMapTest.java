@@ -0,0 +1,46 @@
+package be.witspirit.flickr.exportprocessor.index;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongObjectMapTest {
+
+    @Test
+    public void behavesAsHashMap() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long key = 30_000_000_000L + random.nextInt(20_000);
+            String value = "photo " + i;
+            assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key)).isEqualTo(value));
+        assertThat(map.get(0)).isNull();
+        assertThat(map.containsKey(29_999_999_999L)).isFalse();
+
+        Map<Long, String> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertThat(visited).isEqualTo(expected);
+    }
+
+    @Test
+    public void supportsZeroAndNegativeKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>(1);
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Long.MIN_VALUE, "min");
+
+        assertThat(map.get(0)).isEqualTo("zero");
+        assertThat(map.get(-1)).isEqualTo("minus one");
+        assertThat(map.get(Long.MIN_VALUE)).isEqualTo("min");
+        assertThat(map.keySet().toSortedArray()).containsExactly(Long.MIN_VALUE, -1, 0);
+    }
+}
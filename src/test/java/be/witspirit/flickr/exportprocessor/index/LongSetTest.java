@@ -0,0 +1,38 @@
+package be.witspirit.flickr.exportprocessor.index;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongSetTest {
+
+    @Test
+    public void addsDistinctValues() {
+        LongSet set = new LongSet();
+        for (long value = 0; value < 5_000; value++) {
+            assertThat(set.add(value * 37)).isTrue();
+        }
+
+        assertThat(set.add(0)).isFalse();
+        assertThat(set.add(37)).isFalse();
+        assertThat(set.size()).isEqualTo(5_000);
+        assertThat(set.contains(0)).isTrue();
+        assertThat(set.contains(4_999 * 37)).isTrue();
+        assertThat(set.contains(38)).isFalse();
+    }
+
+    @Test
+    public void difference() {
+        LongSet content = new LongSet();
+        LongSet metadata = new LongSet();
+        for (long id : new long[]{11, 12, 13, 0}) {
+            content.add(id);
+        }
+        for (long id : new long[]{12, 13, 14}) {
+            metadata.add(id);
+        }
+
+        assertThat(content.without(metadata).toSortedArray()).containsExactly(0, 11);
+        assertThat(metadata.without(content).toSortedArray()).containsExactly(14);
+    }
+}
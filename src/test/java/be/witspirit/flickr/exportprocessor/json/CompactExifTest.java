@@ -0,0 +1,66 @@
+package be.witspirit.flickr.exportprocessor.json;
+
+import be.witspirit.flickr.exportprocessor.AppConfig;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactExifTest {
+    private static final String EXIF_JSON = "{" +
+            "\"Make\": \"Canon\"," +
+            "\"Model\": \"Canon EOS 5D\"," +
+            "\"DateTimeOriginal\": {\"full\": \"ExifIFD:DateTimeOriginal\", \"label\": \"Date and Time (Original)\", \"value\": \"2018:08:30 14:02:11\", \"raw_value\": \"2018:08:30 14:02:11\"}," +
+            "\"ExposureTime\": {\"full\": \"ExifIFD:ExposureTime\", \"label\": \"Exposure\", \"value\": \"0.004 sec (1/250)\", \"raw_value\": \"1/250\"}" +
+            "}";
+
+    private final ObjectMapper objectMapper = new AppConfig().objectMapper();
+
+    @Test
+    public void typedAccessors() {
+        CompactExif exif = CompactExif.parse(EXIF_JSON.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(exif.size()).isEqualTo(4);
+        assertThat(exif.make()).contains("Canon");
+        assertThat(exif.model()).contains("Canon EOS 5D");
+        assertThat(exif.dateTimeOriginal()).contains(LocalDateTime.of(2018, 8, 30, 14, 2, 11));
+        assertThat(exif.exposureTime().getAsDouble()).isEqualTo(0.004);
+        assertThat(exif.value("ExposureTime")).contains("0.004 sec (1/250)");
+        assertThat(exif.value("ISO")).isEmpty();
+        assertThat(CompactExif.EMPTY.make()).isEmpty();
+    }
+
+    @Test
+    public void decodesAsDataBinding() throws Exception {
+        Map<String, ExifValue> bound = objectMapper.readValue(EXIF_JSON, new TypeReference<Map<String, ExifValue>>() {});
+
+        CompactExif exif = CompactExif.parse(EXIF_JSON.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(exif.fieldNames()).containsExactlyElementsOf(bound.keySet());
+        assertThat(exif.toMap()).hasToString(bound.toString());
+        assertThat(CompactExif.of(bound).toMap()).hasToString(bound.toString());
+        // What we write to the snapshot reads back the same
+        assertThat(CompactExif.parse(exif.toJson()).toMap()).hasToString(bound.toString());
+    }
+
+    @Test
+    public void keepsEveryLoadInAStoreOfItsOwn() {
+        ExifStore store = new ExifStore();
+        CompactExif exif = CompactExif.parse(EXIF_JSON.getBytes(StandardCharsets.UTF_8), store);
+        // Enough values to grow the store over several chunks
+        long[] handles = new long[10_000];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = store.store("Value " + i);
+        }
+
+        assertThat(store.load(handles[0])).isEqualTo("Value 0");
+        assertThat(store.load(handles[handles.length - 1])).isEqualTo("Value 9999");
+        assertThat(exif.make()).contains("Canon");
+        assertThat(new ExifStore().existingSymbol("Make")).isEqualTo(ExifStore.NONE);
+    }
+}
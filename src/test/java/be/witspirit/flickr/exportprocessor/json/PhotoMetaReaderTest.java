@@ -0,0 +1,74 @@
+package be.witspirit.flickr.exportprocessor.json;
+
+import be.witspirit.flickr.exportprocessor.AppConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PhotoMetaReaderTest {
+    private static final String PHOTO_JSON = "{" +
+            "\"id\": \"43536291795\"," +
+            "\"name\": \"20180830_kindjesphotoshoot---001\"," +
+            "\"description\": \"Kindjes\"," +
+            "\"count_views\": \"12\"," +
+            "\"date_taken\": \"2018-08-30 14:02:11\"," +
+            "\"original\": \"https://farm2.staticflickr.com/1842/43536291795_fcd1b8ad82_o.jpg\"," +
+            "\"geo\": []," +
+            "\"albums\": [{\"id\": \"72157671234567890\", \"title\": \"Photoshoot\"}]," +
+            "\"tags\": [{\"tag\": \"kids\", \"user\": \"12345678@N00\"}, {\"tag\": \"square format\", \"user\": \"12345678@N00\"}]," +
+            "\"exif\": {\"Make\": \"Canon\", \"ExposureTime\": {\"full\": \"ExifIFD:ExposureTime\", \"label\": \"Exposure\", \"value\": \"0.004 sec (1/250)\", \"raw_value\": \"1/250\"}}," +
+            "\"privacy\": \"public\"" +
+            "}";
+
+    private final ObjectMapper objectMapper = new AppConfig().objectMapper();
+    private final PhotoMetaReader reader = new PhotoMetaReader(objectMapper);
+
+    @Test
+    public void matchesDataBinding() throws Exception {
+        byte[] json = PHOTO_JSON.getBytes(StandardCharsets.UTF_8);
+        PhotoMeta streamed = reader.read(json);
+        PhotoMeta bound = objectMapper.readValue(json, PhotoMeta.class);
+
+        assertThat(streamed.getId()).isEqualTo(bound.getId());
+        assertThat(streamed.getName()).isEqualTo(bound.getName());
+        assertThat(streamed.getDescription()).isEqualTo(bound.getDescription());
+        assertThat(streamed.getDateTaken()).isEqualTo(bound.getDateTaken());
+        assertThat(streamed.getOriginal()).isEqualTo(bound.getOriginal());
+        assertThat(streamed.getTags().stream().map(Tag::getTag).collect(Collectors.toList()))
+                .containsExactly("kids", "square format");
+        assertThat(streamed.getExif()).hasSameSizeAs(bound.getExif());
+    }
+
+    @Test
+    public void exifDecodedOnRequest() throws Exception {
+        PhotoMeta photoMeta = reader.read(PHOTO_JSON.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(photoMeta.getExif()).containsOnlyKeys("Make", "ExposureTime");
+        assertThat(photoMeta.getExif().get("Make").isSimple()).isTrue();
+        assertThat(photoMeta.getExif().get("ExposureTime").getRawValue()).isEqualTo("1/250");
+    }
+
+    @Test
+    public void emptyExifArray() throws Exception {
+        PhotoMeta photoMeta = reader.read("{\"id\": \"1\", \"exif\": [], \"tags\": []}".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(photoMeta.getId()).isEqualTo("1");
+        assertThat(photoMeta.getExif()).isEmpty();
+        assertThat(photoMeta.getTags()).isEmpty();
+    }
+
+    @Test
+    public void skipsMalformedTags() throws Exception {
+        PhotoMeta photoMeta = reader.read(("{\"id\": \"1\", " +
+                "\"tags\": [\"loose\", null, {\"tag\": null}, [{\"tag\": \"nested\"}], {\"tag\": {\"nested\": \"object\"}}, {\"tag\": \"kids\"}], " +
+                "\"name\": \"after the tags\", \"date_taken\": \"2018-08-30 14:02:11\"}").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(photoMeta.getTags().stream().map(Tag::getTag).collect(Collectors.toList())).containsExactly("kids");
+        assertThat(photoMeta.getName()).isEqualTo("after the tags");
+        assertThat(photoMeta.getDateTaken()).isEqualTo("2018-08-30 14:02:11");
+    }
+}
@@ -0,0 +1,63 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import org.junit.Test;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void returnsTheSameMetricForAName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("transfer.files").increment();
+        registry.counter("transfer.files").add(2);
+
+        assertThat(registry.counter("transfer.files").get()).isEqualTo(3);
+        assertThatThrownBy(() -> registry.timer("transfer.files")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void counterExpectsRelativeToItsCurrentCount() {
+        Counter counter = new Counter();
+        counter.add(10);
+        counter.expect(5);
+
+        assertThat(counter.getExpected()).isEqualTo(15);
+    }
+
+    @Test
+    public void timerPercentilesAreWithinAFactorTwo() {
+        Timer timer = new Timer();
+        for (int i = 1; i <= 100; i++) {
+            timer.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertThat(timer.getCount()).isEqualTo(100);
+        assertThat(timer.getMeanMillis()).isEqualTo(50.5);
+        assertThat(timer.getMaxMillis()).isEqualTo(100);
+        assertThat(timer.getPercentileMillis(50)).isBetween(50.0, 100.0);
+        assertThat(timer.getPercentileMillis(99)).isBetween(99.0, 100.0);
+    }
+
+    @Test
+    public void exposesAllValuesAsMBeanAttributes() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("transfer.files").add(3);
+        registry.timer("metadata.parse").record(1_000_000);
+        registry.gauge("pipeline.queue", () -> 7);
+        MetricsMBean mBean = new MetricsMBean(registry);
+
+        assertThat(mBean.getAttribute("transfer.files")).isEqualTo(3L);
+        assertThat(mBean.getAttribute("metadata.parse.count")).isEqualTo(1L);
+        assertThat(mBean.getAttribute("pipeline.queue")).isEqualTo(7L);
+        assertThat(Arrays.stream(mBean.getMBeanInfo().getAttributes()).map(MBeanAttributeInfo::getName))
+                .contains("transfer.files", "metadata.parse.p99Millis", "pipeline.queue");
+        assertThatThrownBy(() -> mBean.getAttribute("transfer.bytes")).isInstanceOf(AttributeNotFoundException.class);
+    }
+}
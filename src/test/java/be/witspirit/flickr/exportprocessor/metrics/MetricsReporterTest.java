@@ -0,0 +1,27 @@
+package be.witspirit.flickr.exportprocessor.metrics;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsReporterTest {
+
+    @Test
+    public void summarizesProgressSinceThePreviousReport() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsReporter reporter = new MetricsReporter(registry, 0);
+        Counter photos = registry.counter("transfer.photos");
+        photos.expect(1000);
+        registry.timer("transfer.copy").record(2_000_000);
+        registry.gauge("transfer.queue", () -> 4);
+
+        Thread.sleep(10);
+        photos.add(100);
+        String summary = reporter.summary();
+
+        assertThat(summary).containsPattern("transfer\\.photos 100/1000 \\(\\d+[.,]\\d/s, ETA \\d+:\\d\\d:\\d\\d\\)");
+        assertThat(summary).contains("transfer.copy p50 2.0 ms", "transfer.queue 4");
+        // Nothing progressed since
+        assertThat(reporter.summary()).isNull();
+    }
+}